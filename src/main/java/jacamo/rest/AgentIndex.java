@@ -0,0 +1,316 @@
+package jacamo.rest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.ArtifactInfo;
+import cartago.ArtifactObsProperty;
+import cartago.CartagoService;
+import cartago.IEventFilter;
+import cartago.Tuple;
+import ora4mas.nopl.GroupBoard;
+import ora4mas.nopl.SchemeBoard;
+import ora4mas.nopl.oe.Player;
+
+/**
+ * Agent-centric index: agent -> roles, missions and observed artifacts.
+ *
+ * The index is updated by CArtAgO events (focus/stop focus, dispose, and
+ * changes in the observable properties of group and scheme boards), so the
+ * details of an agent are answered without scanning all boards and artifacts.
+ * The boards are kept by workspace and artifact name (found once, when created or first changed).
+ * The artifacts observed by an agent in a workspace are removed when it quits the workspace; its
+ * roles and missions are kept while it is a player of the boards (as the boards report them).
+ */
+public class AgentIndex extends ArtifactEvents.Listener {
+
+    /** an agent playing a target (role or mission) in a board (group or scheme) */
+    public static final class Play {
+        final String board;
+        final String oe;     // organisational entity (workspace) of the board
+        final String target;
+
+        Play(String board, String oe, String target) {
+            this.board  = board;
+            this.oe     = oe;
+            this.target = target;
+        }
+
+        public String getBoard()  { return board; }
+        public String getOE()     { return oe; }
+        public String getTarget() { return target; }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(board, oe, target);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Play))
+                return false;
+            Play p = (Play)o;
+            return board.equals(p.board) && oe.equals(p.oe) && target.equals(p.target);
+        }
+    }
+
+    /** an artifact observed by an agent */
+    public static final class Observed {
+        final String wks;
+        final String artifact;
+        final String type;
+
+        Observed(String wks, String artifact, String type) {
+            this.wks      = wks;
+            this.artifact = artifact;
+            this.type     = type;
+        }
+
+        public String getWorkspace() { return wks; }
+        public String getArtifact()  { return artifact; }
+        public String getType()      { return type; }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(wks, artifact);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Observed))
+                return false;
+            Observed a = (Observed)o;
+            return wks.equals(a.wks) && artifact.equals(a.artifact);
+        }
+    }
+
+    protected final ArtifactEvents hub;
+
+    protected final Map<String, Set<Play>>     roles    = new ConcurrentHashMap<>(); // agent -> roles
+    protected final Map<String, Set<Play>>     missions = new ConcurrentHashMap<>(); // agent -> missions
+    protected final Map<String, Set<Observed>> observed = new ConcurrentHashMap<>(); // agent -> artifacts
+
+    // what each board has added in roles/missions, used to compute the changes when the board changes
+    // boards are identified by "workspace/artifact name" (see key), boards with the same name may be in several workspaces
+    protected final Map<String, Map<String, Set<Play>>> boardPlays = new ConcurrentHashMap<>(); // board -> agent -> plays
+    protected final Map<String, GroupBoard>             groups     = new ConcurrentHashMap<>(); // board -> group board
+    protected final Map<String, SchemeBoard>            schemes    = new ConcurrentHashMap<>(); // board -> scheme board
+
+    protected static final String groupBoardType  = GroupBoard.class.getName();
+    protected static final String schemeBoardType = SchemeBoard.class.getName();
+
+    public AgentIndex(ArtifactEvents hub) {
+        this.hub = hub;
+        hub.addListener(this);
+    }
+
+    public void stop() {
+        hub.removeListener(this);
+        roles.clear();
+        missions.clear();
+        observed.clear();
+        boardPlays.clear();
+        groups.clear();
+        schemes.clear();
+    }
+
+    /** attaches new workspaces (if any), to be called before reading the index */
+    public void refresh() {
+        hub.attach();
+    }
+
+    public Set<Play> getRoles(String agName) {
+        return roles.getOrDefault(agName, Collections.emptySet());
+    }
+
+    public Set<Play> getMissions(String agName) {
+        return missions.getOrDefault(agName, Collections.emptySet());
+    }
+
+    public Set<Observed> getObserved(String agName) {
+        return observed.getOrDefault(agName, Collections.emptySet());
+    }
+
+    /** the scheme board of the workspace (organisational entity) with the name */
+    public SchemeBoard getSchemeBoard(String wks, String name) {
+        return schemes.get(key(wks, name));
+    }
+
+    protected static String key(String wks, String name) {
+        return wks + "/" + name;
+    }
+
+    protected static String key(ArtifactId aid) {
+        return key(aid.getWorkspaceId().getName(), aid.getName());
+    }
+
+    // initial state of a workspace: its artifacts and boards
+
+    @Override
+    public void workspaceAttached(String wksName) {
+        try {
+            for (ArtifactId aid: CartagoService.getController(wksName).getCurrentArtifacts()) {
+                ArtifactInfo info = CartagoService.getController(wksName).getArtifactInfo(aid.getName());
+                info.getObservers().forEach(o -> addObserved(o.getAgentId().getAgentName(), aid));
+                boardChanged(aid);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // changes
+
+    @Override
+    public void artifactFocussed(long when, AgentId who, ArtifactId id, IEventFilter filter) {
+        addObserved(who.getAgentName(), id);
+    }
+
+    @Override
+    public void artifactNotFocussed(long when, AgentId who, ArtifactId id) {
+        Set<Observed> s = observed.get(who.getAgentName());
+        if (s != null)
+            s.remove(observedOf(id));
+    }
+
+    @Override
+    public void artifactCreated(long when, ArtifactId id, AgentId creator) {
+        boardChanged(id);
+    }
+
+    @Override
+    public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {
+        Observed a = observedOf(id);
+        for (Set<Observed> s: observed.values())
+            s.remove(a);
+        if (isBoard(id)) {
+            String board = key(id);
+            groups.remove(board);
+            schemes.remove(board);
+            setBoardPlays(board, isGroupBoard(id) ? roles : missions, Collections.emptyMap());
+        }
+    }
+
+    @Override
+    public void newPercept(long when, ArtifactId id, Tuple signal, ArtifactObsProperty[] added, ArtifactObsProperty[] removed, ArtifactObsProperty[] changed) {
+        if ((added != null && added.length > 0) || (removed != null && removed.length > 0) || (changed != null && changed.length > 0))
+            boardChanged(id);
+    }
+
+    @Override
+    public void agentQuit(long when, AgentId who) {
+        // roles and missions are not changed: the agent is still a player of the boards
+        // (only those of the workspaces the agent is in are shown)
+        String wks = who.getWorkspaceId().getName();
+        observed.computeIfPresent(who.getAgentName(), (k, s) -> {
+            s.removeIf(o -> o.wks.equals(wks));
+            return s.isEmpty() ? null : s;
+        });
+    }
+
+    protected void addObserved(String agName, ArtifactId aid) {
+        Observed o = observedOf(aid);
+        observed.compute(agName, (k, s) -> {
+            if (s == null)
+                s = ConcurrentHashMap.newKeySet();
+            s.add(o);
+            return s;
+        });
+    }
+
+    protected Observed observedOf(ArtifactId aid) {
+        return new Observed(aid.getWorkspaceId().getName(), aid.getName(), aid.getArtifactType());
+    }
+
+    protected boolean isGroupBoard(ArtifactId aid) {
+        return groupBoardType.equals(aid.getArtifactType());
+    }
+
+    protected boolean isBoard(ArtifactId aid) {
+        return isGroupBoard(aid) || schemeBoardType.equals(aid.getArtifactType());
+    }
+
+    /** reads the players of the board and updates roles/missions with the difference */
+    protected void boardChanged(ArtifactId aid) {
+        String board = key(aid);
+        String wks   = aid.getWorkspaceId().getName();
+        if (isGroupBoard(aid)) {
+            GroupBoard gb = groups.get(board);
+            if (gb == null) {
+                gb = findGroupBoard(wks, aid.getName());
+                if (gb == null)
+                    return;
+                groups.put(board, gb);
+            }
+            setBoardPlays(board, roles, playsOf(gb.getArtId(), gb.getOEId(), gb.getGrpState().getPlayers()));
+        } else if (schemeBoardType.equals(aid.getArtifactType())) {
+            SchemeBoard sb = schemes.get(board);
+            if (sb == null) {
+                sb = findSchemeBoard(wks, aid.getName());
+                if (sb == null)
+                    return;
+                schemes.put(board, sb);
+            }
+            setBoardPlays(board, missions, playsOf(sb.getArtId(), sb.getOEId(), sb.getSchState().getPlayers()));
+        }
+    }
+
+    // boards are searched only when they are not yet known (e.g., just created),
+    // the organisational entity of a board is the workspace where it is
+
+    protected GroupBoard findGroupBoard(String wks, String name) {
+        for (GroupBoard gb: GroupBoard.getGroupBoards())
+            if (gb.getArtId().equals(name) && gb.getOEId().equals(wks))
+                return gb;
+        return null;
+    }
+
+    protected SchemeBoard findSchemeBoard(String wks, String name) {
+        for (SchemeBoard sb: SchemeBoard.getSchemeBoards())
+            if (sb.getArtId().equals(name) && sb.getOEId().equals(wks))
+                return sb;
+        return null;
+    }
+
+    protected Map<String, Set<Play>> playsOf(String board, String oe, Iterable<Player> players) {
+        Map<String, Set<Play>> r = new HashMap<>();
+        for (Player p: players)
+            r.computeIfAbsent(p.getAg(), k -> new HashSet<>()).add(new Play(board, oe, p.getTarget()));
+        return r;
+    }
+
+    protected synchronized void setBoardPlays(String board, Map<String, Set<Play>> view, Map<String, Set<Play>> current) {
+        Map<String, Set<Play>> old = boardPlays.getOrDefault(board, Collections.emptyMap());
+        for (Map.Entry<String, Set<Play>> e: old.entrySet()) {
+            Set<Play> now = current.getOrDefault(e.getKey(), Collections.emptySet());
+            Set<Play> agPlays = view.get(e.getKey());
+            if (agPlays != null)
+                for (Play p: e.getValue())
+                    if (!now.contains(p))
+                        agPlays.remove(p);
+        }
+        for (Map.Entry<String, Set<Play>> e: current.entrySet())
+            view.computeIfAbsent(e.getKey(), k -> ConcurrentHashMap.newKeySet()).addAll(e.getValue());
+        if (current.isEmpty())
+            boardPlays.remove(board);
+        else
+            boardPlays.put(board, current);
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("workspaces", hub.getAttachedWorkspaces().size());
+        m.put("agentsWithRoles", roles.size());
+        m.put("agentsWithMissions", missions.size());
+        m.put("agentsObserving", observed.size());
+        m.put("boards", boardPlays.size());
+        return m;
+    }
+}
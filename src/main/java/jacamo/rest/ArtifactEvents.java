@@ -0,0 +1,174 @@
+package jacamo.rest;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.ArtifactObsProperty;
+import cartago.CartagoService;
+import cartago.ICartagoLogger;
+import cartago.IEventFilter;
+import cartago.Op;
+import cartago.Tuple;
+
+/**
+ * Single source of CArtAgO events for the REST platform.
+ *
+ * One logger is registered in each workspace of this node; the events are
+ * forwarded to the listeners (indexes, caches, streams, ...), so that they do
+ * not need to scan the workspaces to find out what has changed.
+ *
+ * Workspaces created after the start are attached by {@link #attach()}, that
+ * is cheap and can be called before any read.
+ */
+public class ArtifactEvents implements ICartagoLogger {
+
+    /** listener of CArtAgO events, all methods do nothing by default */
+    public static abstract class Listener implements ICartagoLogger {
+        /** called once for every workspace, when the hub starts to receive its events */
+        public void workspaceAttached(String wksName) {}
+
+        public void opRequested(long when, AgentId who, ArtifactId aid, Op op) {}
+        public void opStarted(long when, AgentId who, ArtifactId aid, Op op) {}
+        public void opSuspended(long when, AgentId who, ArtifactId aid, Op op) {}
+        public void opResumed(long when, AgentId who, ArtifactId aid, Op op) {}
+        public void opCompleted(long when, AgentId who, ArtifactId aid, Op op) {}
+        public void opFailed(long when, AgentId who, ArtifactId aid, Op op, String msg, Tuple descr) {}
+        public void newPercept(long when, ArtifactId id, Tuple signal, ArtifactObsProperty[] added, ArtifactObsProperty[] removed, ArtifactObsProperty[] changed) {}
+        public void artifactCreated(long when, ArtifactId id, AgentId creator) {}
+        public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {}
+        public void artifactFocussed(long when, AgentId who, ArtifactId id, IEventFilter filter) {}
+        public void artifactNotFocussed(long when, AgentId who, ArtifactId id) {}
+        public void artifactLinked(long when, AgentId id, ArtifactId linking, ArtifactId linked) {}
+        public void agentJoined(long when, AgentId id) {}
+        public void agentQuit(long when, AgentId id) {}
+    }
+
+    protected final Set<String>    attached  = ConcurrentHashMap.newKeySet();
+    protected final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /** starts to receive the events of the workspaces not attached yet */
+    public void attach() {
+        for (String wks: CartagoService.getNode().getWorkspaces()) {
+            if (attached.add(wks)) {
+                try {
+                    CartagoService.registerLogger(wks, this);
+                    for (Listener l: listeners)
+                        l.workspaceAttached(wks);
+                } catch (Exception e) {
+                    attached.remove(wks);
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    public Set<String> getAttachedWorkspaces() {
+        return Collections.unmodifiableSet(attached);
+    }
+
+    /** adds a listener, its workspaceAttached is called for the workspaces already attached */
+    public void addListener(Listener l) {
+        listeners.add(l);
+        for (String wks: attached)
+            l.workspaceAttached(wks);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    public void stop() {
+        listeners.clear();
+    }
+
+    // events forwarded to the listeners
+
+    @Override
+    public void opRequested(long when, AgentId who, ArtifactId aid, Op op) {
+        for (Listener l: listeners)
+            l.opRequested(when, who, aid, op);
+    }
+
+    @Override
+    public void opStarted(long when, AgentId who, ArtifactId aid, Op op) {
+        for (Listener l: listeners)
+            l.opStarted(when, who, aid, op);
+    }
+
+    @Override
+    public void opSuspended(long when, AgentId who, ArtifactId aid, Op op) {
+        for (Listener l: listeners)
+            l.opSuspended(when, who, aid, op);
+    }
+
+    @Override
+    public void opResumed(long when, AgentId who, ArtifactId aid, Op op) {
+        for (Listener l: listeners)
+            l.opResumed(when, who, aid, op);
+    }
+
+    @Override
+    public void opCompleted(long when, AgentId who, ArtifactId aid, Op op) {
+        for (Listener l: listeners)
+            l.opCompleted(when, who, aid, op);
+    }
+
+    @Override
+    public void opFailed(long when, AgentId who, ArtifactId aid, Op op, String msg, Tuple descr) {
+        for (Listener l: listeners)
+            l.opFailed(when, who, aid, op, msg, descr);
+    }
+
+    @Override
+    public void newPercept(long when, ArtifactId id, Tuple signal, ArtifactObsProperty[] added, ArtifactObsProperty[] removed, ArtifactObsProperty[] changed) {
+        for (Listener l: listeners)
+            l.newPercept(when, id, signal, added, removed, changed);
+    }
+
+    @Override
+    public void artifactCreated(long when, ArtifactId id, AgentId creator) {
+        for (Listener l: listeners)
+            l.artifactCreated(when, id, creator);
+    }
+
+    @Override
+    public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {
+        for (Listener l: listeners)
+            l.artifactDisposed(when, id, disposer);
+    }
+
+    @Override
+    public void artifactFocussed(long when, AgentId who, ArtifactId id, IEventFilter filter) {
+        for (Listener l: listeners)
+            l.artifactFocussed(when, who, id, filter);
+    }
+
+    @Override
+    public void artifactNotFocussed(long when, AgentId who, ArtifactId id) {
+        for (Listener l: listeners)
+            l.artifactNotFocussed(when, who, id);
+    }
+
+    @Override
+    public void artifactLinked(long when, AgentId id, ArtifactId linking, ArtifactId linked) {
+        for (Listener l: listeners)
+            l.artifactLinked(when, id, linking, linked);
+    }
+
+    @Override
+    public void agentJoined(long when, AgentId id) {
+        for (Listener l: listeners)
+            l.agentJoined(when, id);
+    }
+
+    @Override
+    public void agentQuit(long when, AgentId id) {
+        for (Listener l: listeners)
+            l.agentQuit(when, id);
+    }
+}
@@ -0,0 +1,99 @@
+package jacamo.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.CartagoException;
+
+/**
+ * Ids of the artifacts used by the API to execute operations, so that a lookup
+ * (a CArtAgO action) is not done for every operation.
+ *
+ * Entries are removed when the artifact is disposed or created (a new artifact with
+ * the same name), events received from the CArtAgO hub. A lookup that runs while an
+ * artifact is created or disposed is not cached, since its result may be already outdated.
+ */
+public class ArtifactIdCache extends ArtifactEvents.Listener {
+
+    /** the lookup done on misses */
+    public interface Lookup {
+        ArtifactId lookup() throws CartagoException;
+    }
+
+    protected final ArtifactEvents hub;
+
+    protected final Map<String, ArtifactId> ids        = new ConcurrentHashMap<>(); // "wks/art" -> id
+    protected final AtomicLong              generation = new AtomicLong(); // changes on every create/dispose
+
+    protected final AtomicLong hits   = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+
+    public ArtifactIdCache(ArtifactEvents hub) {
+        this.hub = hub;
+        hub.addListener(this);
+    }
+
+    public void stop() {
+        hub.removeListener(this);
+        ids.clear();
+    }
+
+    /**
+     * returns the id of the artifact, from the cache or from the lookup
+     * (null results of the lookup are not cached)
+     */
+    public ArtifactId get(String wksName, String artName, Lookup lookup) throws CartagoException {
+        String key = wksName + "/" + artName;
+        ArtifactId aid = ids.get(key);
+        if (aid != null) {
+            hits.incrementAndGet();
+            return aid;
+        }
+        misses.incrementAndGet();
+        hub.attach(); // the events of the workspace are needed to invalidate the entry
+        long g = generation.get();
+        aid = lookup.lookup();
+        if (aid != null && generation.get() == g)
+            ids.put(key, aid);
+        return aid;
+    }
+
+    /** removes the id of the artifact (e.g., an operation on it failed) */
+    public void invalidate(String wksName, String artName) {
+        ids.remove(wksName + "/" + artName);
+    }
+
+    public void clear() {
+        ids.clear();
+    }
+
+    protected void changed(ArtifactId aid) {
+        generation.incrementAndGet();
+        ids.remove(aid.getWorkspaceId().getName() + "/" + aid.getName());
+    }
+
+    @Override
+    public void artifactCreated(long when, ArtifactId id, AgentId creator) {
+        changed(id);
+    }
+
+    @Override
+    public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {
+        changed(id);
+    }
+
+    public Map<String,Object> getMetrics() {
+        long h = hits.get();
+        long t = h + misses.get();
+        Map<String,Object> m = new HashMap<>();
+        m.put("size", ids.size());
+        m.put("hits", h);
+        m.put("misses", misses.get());
+        m.put("hitRate", t == 0 ? 0 : (double)h / t);
+        return m;
+    }
+}
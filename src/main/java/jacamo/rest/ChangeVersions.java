@@ -0,0 +1,161 @@
+package jacamo.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.EntityTag;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.ArtifactObsProperty;
+import cartago.IEventFilter;
+import cartago.Op;
+import cartago.Tuple;
+
+/**
+ * Versions of workspaces, artifacts, organisations and agents (for ETags).
+ *
+ * Versions are updated by CArtAgO events: an artifact changes when it is created, disposed,
+ * (not) focussed, linked, has an operation executed or its observable properties changed;
+ * its workspace changes with it; boards (ora4mas) also change their organisation
+ * and the roles/missions of the agents. Versions are values of a single clock,
+ * so they only increase, and the ETags include the start time of the platform,
+ * so that tags of a previous run do not match.
+ *
+ * Beliefs are not CArtAgO events, the version of the beliefs of an agent is given by
+ * the caller (see TranslAg.getBeliefsVersion).
+ */
+public class ChangeVersions extends ArtifactEvents.Listener {
+
+    protected final ArtifactEvents hub;
+
+    protected final AtomicLong        clock    = new AtomicLong();
+    protected final Map<String, Long> versions = new ConcurrentHashMap<>();
+    protected final String            boot     = Long.toString(System.currentTimeMillis(), 36);
+
+    protected static final String boardsPackage = "ora4mas.nopl.";
+
+    public ChangeVersions(ArtifactEvents hub) {
+        this.hub = hub;
+        hub.addListener(this);
+    }
+
+    public void stop() {
+        hub.removeListener(this);
+        versions.clear();
+    }
+
+    /** attaches new workspaces (if any), to be called before reading the versions */
+    public void refresh() {
+        hub.attach();
+    }
+
+    public long getWorkspaceVersion(String wksName) {
+        return versions.getOrDefault("w:" + wksName, 0L);
+    }
+
+    public long getArtifactVersion(String wksName, String artName) {
+        return versions.getOrDefault("a:" + wksName + "/" + artName, 0L);
+    }
+
+    public long getOrganisationVersion(String oeName) {
+        return versions.getOrDefault("o:" + oeName, 0L);
+    }
+
+    /** version of the CArtAgO related data of the agent (joined workspaces, focus, roles and missions) */
+    public long getAgentVersion(String agName) {
+        return Math.max(versions.getOrDefault("g:" + agName, 0L), versions.getOrDefault("boards", 0L));
+    }
+
+    /** a weak ETag for the given versions */
+    public EntityTag tag(long... vs) {
+        StringBuilder s = new StringBuilder(boot);
+        for (long v: vs)
+            s.append('.').append(Long.toString(v, 36));
+        return new EntityTag(s.toString(), true);
+    }
+
+    protected void changed(String key) {
+        versions.put(key, clock.incrementAndGet());
+    }
+
+    protected void artifactChanged(ArtifactId aid) {
+        String wks = aid.getWorkspaceId().getName();
+        changed("a:" + wks + "/" + aid.getName());
+        changed("w:" + wks);
+        if (aid.getArtifactType().startsWith(boardsPackage)) {
+            changed("o:" + wks);
+            changed("boards");
+        }
+    }
+
+    @Override
+    public void workspaceAttached(String wksName) {
+        // changes before attaching were not seen
+        changed("w:" + wksName);
+        changed("o:" + wksName);
+        changed("boards");
+    }
+
+    @Override
+    public void opCompleted(long when, AgentId who, ArtifactId aid, Op op) {
+        artifactChanged(aid);
+    }
+
+    @Override
+    public void opFailed(long when, AgentId who, ArtifactId aid, Op op, String msg, Tuple descr) {
+        artifactChanged(aid);
+    }
+
+    @Override
+    public void newPercept(long when, ArtifactId id, Tuple signal, ArtifactObsProperty[] added, ArtifactObsProperty[] removed, ArtifactObsProperty[] changed) {
+        if ((added != null && added.length > 0) || (removed != null && removed.length > 0) || (changed != null && changed.length > 0))
+            artifactChanged(id);
+    }
+
+    @Override
+    public void artifactCreated(long when, ArtifactId id, AgentId creator) {
+        artifactChanged(id);
+    }
+
+    @Override
+    public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {
+        artifactChanged(id);
+    }
+
+    @Override
+    public void artifactFocussed(long when, AgentId who, ArtifactId id, IEventFilter filter) {
+        artifactChanged(id);
+        changed("g:" + who.getAgentName());
+    }
+
+    @Override
+    public void artifactNotFocussed(long when, AgentId who, ArtifactId id) {
+        artifactChanged(id);
+        changed("g:" + who.getAgentName());
+    }
+
+    @Override
+    public void artifactLinked(long when, AgentId id, ArtifactId linking, ArtifactId linked) {
+        artifactChanged(linking);
+    }
+
+    @Override
+    public void agentJoined(long when, AgentId id) {
+        changed("g:" + id.getAgentName());
+    }
+
+    @Override
+    public void agentQuit(long when, AgentId id) {
+        changed("g:" + id.getAgentName());
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("entries", versions.size());
+        m.put("clock", clock.get());
+        return m;
+    }
+}
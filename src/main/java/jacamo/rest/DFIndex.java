@@ -0,0 +1,222 @@
+package jacamo.rest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+
+/**
+ * In-memory index of the directory facilitator (/jacamo/df in ZK), with
+ * service -> agents and agent -> services views.
+ *
+ * The index is updated by a single Curator tree watch on /jacamo/df and
+ * by the (de)registrations done by this JVM (write through). The sets
+ * stored in the views are never changed (copy on write), so readers
+ * can use them without locks or copies. Every change increments the
+ * version of the index.
+ */
+public class DFIndex implements TreeCacheListener {
+
+    /** listener of changes in the providers of services */
+    public interface Listener {
+        void serviceChanged(String service);
+    }
+
+    protected final CuratorFramework         zkClient;
+    protected final String                   root = JCMRest.JaCaMoZKDFNodeId;
+    protected TreeCache                      treeCache = null;
+
+    protected final Map<String, Set<String>> providers = new ConcurrentHashMap<>(); // service -> agents
+    protected final Map<String, Set<String>> services  = new ConcurrentHashMap<>(); // agent -> services
+    protected final AtomicLong               version   = new AtomicLong();
+    protected final List<Listener>           listeners = new CopyOnWriteArrayList<>();
+
+    /** true when the initial load is done and the connection with ZK is ok */
+    protected volatile boolean               synced = false;
+
+    /** the agent -> services view at some version */
+    private static class Snapshot {
+        final long                     version;
+        final Map<String, Set<String>> df;
+
+        Snapshot(long version, Map<String, Set<String>> df) {
+            this.version = version;
+            this.df      = df;
+        }
+    }
+
+    // snapshot of the agent -> services view, rebuilt only when the version changes
+    // (version and map published together, so that a reader never pairs a version with an older map)
+    private volatile Snapshot snapshot = null;
+
+    public DFIndex(CuratorFramework zkClient) {
+        this.zkClient = zkClient;
+    }
+
+    public void start() throws Exception {
+        treeCache = TreeCache.newBuilder(zkClient, root)
+                .setCacheData(false)
+                .setMaxDepth(2) // service and its providers
+                .build();
+        treeCache.getListenable().addListener(this);
+        treeCache.start();
+    }
+
+    public void stop() {
+        synced = false;
+        if (treeCache != null) {
+            treeCache.close();
+            treeCache = null;
+        }
+        providers.clear();
+        services.clear();
+        version.incrementAndGet();
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    protected void notifyListeners(String service) {
+        for (Listener l: listeners)
+            l.serviceChanged(service);
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    public synchronized void add(String service, String agName) {
+        Set<String> ags = providers.getOrDefault(service, Collections.emptySet());
+        if (ags.contains(agName))
+            return;
+        providers.put(service, copyAdd(ags, agName));
+        services.put(agName, copyAdd(services.getOrDefault(agName, Collections.emptySet()), service));
+        version.incrementAndGet();
+        notifyListeners(service);
+    }
+
+    public synchronized void remove(String service, String agName) {
+        Set<String> ags = providers.get(service);
+        if (ags == null || !ags.contains(agName))
+            return;
+        copyRemove(providers, service, agName);
+        copyRemove(services, agName, service);
+        version.incrementAndGet();
+        notifyListeners(service);
+    }
+
+    public synchronized void removeService(String service) {
+        Set<String> ags = providers.remove(service);
+        if (ags == null)
+            return;
+        for (String ag: ags)
+            copyRemove(services, ag, service);
+        version.incrementAndGet();
+        notifyListeners(service);
+    }
+
+    /** agents providing the service (an immutable set) */
+    public Set<String> getProviders(String service) {
+        return providers.getOrDefault(service, Collections.emptySet());
+    }
+
+    /** services provided by the agent (an immutable set) */
+    public Set<String> getServices(String agName) {
+        return services.getOrDefault(agName, Collections.emptySet());
+    }
+
+    /** an immutable snapshot of the agent -> services view */
+    public Map<String, Set<String>> getDF() {
+        long v = version.get();
+        Snapshot s = snapshot;
+        if (s == null || s.version != v) {
+            // the version is read before the copy, the map is at least as recent as the version
+            s = new Snapshot(v, Collections.unmodifiableMap(new HashMap<>(services)));
+            snapshot = s;
+        }
+        return s.df;
+    }
+
+    private static Set<String> copyAdd(Set<String> s, String e) {
+        Set<String> n = new HashSet<>(s);
+        n.add(e);
+        return Collections.unmodifiableSet(n);
+    }
+
+    private static void copyRemove(Map<String, Set<String>> view, String key, String e) {
+        Set<String> s = view.get(key);
+        if (s == null)
+            return;
+        if (s.size() == 1 && s.contains(e)) {
+            view.remove(key);
+        } else {
+            Set<String> n = new HashSet<>(s);
+            n.remove(e);
+            view.put(key, Collections.unmodifiableSet(n));
+        }
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+        switch (event.getType()) {
+        case NODE_ADDED:
+            String[] p = relativePath(event.getData());
+            if (p != null && p.length == 2)
+                add(p[0], p[1]);
+            break;
+        case NODE_REMOVED:
+            p = relativePath(event.getData());
+            if (p != null && p.length == 2)
+                remove(p[0], p[1]);
+            else if (p != null && p.length == 1)
+                removeService(p[0]);
+            break;
+        case INITIALIZED:
+        case CONNECTION_RECONNECTED:
+            synced = true;
+            break;
+        case CONNECTION_SUSPENDED:
+        case CONNECTION_LOST:
+            synced = false;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** returns [service] for service nodes, [service, agent] for providers, null for the root */
+    protected String[] relativePath(ChildData d) {
+        String path = d.getPath();
+        if (path.length() <= root.length()+1)
+            return null;
+        return path.substring(root.length()+1).split("/");
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("synced", synced);
+        m.put("version", version.get());
+        m.put("services", providers.size());
+        m.put("agents", services.size());
+        return m;
+    }
+}
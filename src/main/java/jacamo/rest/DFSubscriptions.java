@@ -0,0 +1,166 @@
+package jacamo.rest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jason.asSemantics.Agent;
+import jason.asSemantics.Unifier;
+import jason.asSyntax.ASSyntax;
+import jason.asSyntax.Atom;
+import jason.asSyntax.Literal;
+import jason.asSyntax.StringTermImpl;
+import jason.asSyntax.UnnamedVar;
+import jason.infra.centralised.BaseCentralisedMAS;
+import jason.infra.centralised.CentralisedAgArch;
+
+/**
+ * Keeps the provider(Ag,Service) beliefs of the agents that subscribed services in the DF.
+ *
+ * All subscribers share the DF index (and so its single ZK watch). Changes in a service
+ * are coalesced during a window of time and then only the difference between the
+ * providers already told to the agent and the current providers is added/removed
+ * in its belief base. The first update of a subscriber removes all its provider(_,Service)
+ * beliefs before adding the current providers.
+ */
+public class DFSubscriptions implements DFIndex.Listener {
+
+    static final Atom dfSource = new Atom("df");
+
+    /** providers known by a new subscriber (compared by identity): its BB may have providers of a previous subscription */
+    static final Set<String> unknown = Collections.unmodifiableSet(new HashSet<>());
+
+    protected final DFIndex df;
+    protected final long    window; // ms
+
+    /** service -> (subscriber -> providers already in its BB) */
+    protected final Map<String, Map<String, Set<String>>> subscriptions = new ConcurrentHashMap<>();
+
+    protected final Set<String>              changed   = ConcurrentHashMap.newKeySet();
+    protected final AtomicBoolean            scheduled = new AtomicBoolean(false);
+    protected final ScheduledExecutorService executor  = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jcm-df-subscriptions");
+        t.setDaemon(true);
+        return t;
+    });
+
+    protected final AtomicLong notifications = new AtomicLong(); // number of flushes of a service
+    protected final AtomicLong beliefChanges = new AtomicLong();
+
+    public DFSubscriptions(DFIndex df, long window) {
+        this.df     = df;
+        this.window = window;
+        df.addListener(this);
+    }
+
+    public void stop() {
+        df.removeListener(this);
+        executor.shutdownNow();
+        subscriptions.clear();
+    }
+
+    public void subscribe(String agName, String service) {
+        Map<String, Set<String>> subs = subscriptions.computeIfAbsent(service, k -> new ConcurrentHashMap<>());
+        if (subs.putIfAbsent(agName, unknown) == null) {
+            // tell the current providers to the new subscriber
+            executor.execute(() -> update(service));
+        }
+    }
+
+    public void unsubscribe(String agName, String service) {
+        Map<String, Set<String>> subs = subscriptions.get(service);
+        if (subs != null)
+            subs.remove(agName);
+    }
+
+    /** removes all subscriptions of an agent (e.g. when it is stopped) */
+    public void unsubscribeAll(String agName) {
+        for (Map<String, Set<String>> subs: subscriptions.values())
+            subs.remove(agName);
+    }
+
+    @Override
+    public void serviceChanged(String service) {
+        if (!subscriptions.containsKey(service))
+            return;
+        changed.add(service);
+        if (scheduled.compareAndSet(false, true))
+            executor.schedule(this::flush, window, TimeUnit.MILLISECONDS);
+    }
+
+    protected void flush() {
+        scheduled.set(false); // new changes from now on schedule another flush
+        for (String s: changed) {
+            changed.remove(s);
+            update(s);
+        }
+    }
+
+    /** brings the BB of the subscribers of the service up to date with the DF */
+    protected void update(String service) {
+        Map<String, Set<String>> subs = subscriptions.get(service);
+        if (subs == null)
+            return;
+        notifications.incrementAndGet();
+        Set<String> current = df.getProviders(service); // immutable set
+        for (Map.Entry<String, Set<String>> e: subs.entrySet()) {
+            Set<String> known = e.getValue();
+            boolean     first = known == unknown;
+            if (!first && known.equals(current))
+                continue;
+
+            CentralisedAgArch arch = BaseCentralisedMAS.getRunner().getAg(e.getKey());
+            if (arch == null) { // the agent is gone
+                subs.remove(e.getKey());
+                continue;
+            }
+            Agent ag = arch.getTS().getAg();
+            try {
+                if (first) {
+                    // stale providers (e.g., of a previous subscription) are removed
+                    Literal l = ASSyntax.createLiteral("provider", new UnnamedVar(), new StringTermImpl(service));
+                    l.addSource(dfSource);
+                    ag.abolish(l, new Unifier());
+                    known = Collections.emptySet();
+                }
+                for (String a: known)
+                    if (!current.contains(a)) {
+                        ag.delBel(providerBel(a, service));
+                        beliefChanges.incrementAndGet();
+                    }
+                for (String a: current)
+                    if (!known.contains(a)) {
+                        ag.addBel(providerBel(a, service));
+                        beliefChanges.incrementAndGet();
+                    }
+            } catch (Exception ex) {
+                ex.printStackTrace();
+            }
+            e.setValue(current);
+            arch.wake();
+        }
+    }
+
+    protected Literal providerBel(String agName, String service) {
+        Literal l = ASSyntax.createLiteral("provider", new Atom(agName), new StringTermImpl(service));
+        l.addSource(dfSource);
+        return l;
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("services", subscriptions.size());
+        m.put("window", window);
+        m.put("notifications", notifications.get());
+        m.put("beliefChanges", beliefChanges.get());
+        return m;
+    }
+}
@@ -7,15 +7,17 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.file.Files;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.core.UriBuilder;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
@@ -25,13 +27,20 @@ import org.apache.zookeeper.server.NIOServerCnxnFactory;
 import org.apache.zookeeper.server.ServerCnxnFactory;
 import org.apache.zookeeper.server.ZooKeeperServer;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.websockets.WebSocketAddOn;
+import org.glassfish.grizzly.websockets.WebSocketEngine;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 
-import com.google.gson.Gson;
-
 import jacamo.platform.DefaultPlatformImpl;
 import jacamo.rest.config.RestAgArch;
 import jacamo.rest.config.RestAppConfig;
+import jacamo.rest.mediation.SessionPool;
+import jacamo.rest.util.MessageCodec;
 import jason.runtime.RuntimeServicesFactory;
 
 
@@ -48,7 +57,39 @@ public class JCMRest extends DefaultPlatformImpl {
 
     protected ServerCnxnFactory zkFactory = null;
     protected static String zkHost = null;
-    protected static CuratorFramework zkClient;
+    protected static volatile CuratorFramework[] zkPool = null; // clients shared by all agents of this JVM
+    protected static int        zkPoolSize = 1;
+    protected static WhitePages wp = null;
+    protected static WPRegistrar wpRegistrar = null;
+    protected static int        wpBatch = 200;
+    protected static DFIndex    df = null;
+    protected static DFSubscriptions dfSubscriptions = null;
+    protected static ArtifactEvents artifactEvents = null;
+    protected static AgentIndex agentIndex = null;
+    protected static ChangeVersions changeVersions = null;
+    protected static SessionPool    sessionPool = null;
+    protected static OperationTracker operations = null;
+    protected static ArtifactIdCache artifactIds = null;
+    protected static Client     msgClient = null;
+    protected static PoolingHttpClientConnectionManager msgConnections = null;
+    protected static OutboundDelivery delivery = null;
+    protected static NodeChannels nodeChannels = null;
+    protected static NodeChannelServer channelServer = null;
+    protected static long       dfWindow = 50; // ms
+    protected static WhitePages.Consistency wpConsistency = WhitePages.Consistency.eventual;
+    protected static int        logCapacity = 1000; // entries kept in the log of each agent
+    protected static int        sseQueue = 256;     // events waiting to be sent to a SSE client
+    protected static int        cmdLimit = 100;     // commands running at the same time
+    protected static long       cmdTimeout = 60000; // ms
+    protected static int        cmdCache = 500;     // parsed commands kept in memory
+    protected static int        envSessions = 4;    // CArtAgO sessions used by the API in each workspace
+    protected static long       envIdle = 60000;    // ms, sessions not used for this time are closed
+    protected static int        msgHostConnections = 20; // connections kept to each node to send messages
+    protected static int        msgQueue = 1000;    // messages waiting to be sent to each node
+    protected static int        msgRetries = 3;     // retries of a request that sends messages
+    protected static boolean    msgBinary = true;   // messages sent to nodes encoded by the MessageCodec
+    protected static boolean    msgChannel = true;  // binary messages sent to nodes by WebSocket
+    protected static long       msgMaxBytes = MessageCodec.DEFAULT_MAX_BYTES; // of a binary batch received
 
     static public String getRestHost() {
         if (restServerURI == null)
@@ -110,6 +151,125 @@ public class JCMRest extends DefaultPlatformImpl {
                     zkHost = a;
                     useZK = true;
                 }
+
+                if (la.equals("--zkPool"))
+                    try {
+                        zkPoolSize = Integer.parseInt(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for zkPool is not a number.");
+                    }
+
+                if (la.equals("--wpBatch"))
+                    try {
+                        wpBatch = Integer.parseInt(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for wpBatch is not a number.");
+                    }
+
+                if (la.equals("--dfWindow"))
+                    try {
+                        dfWindow = Long.parseLong(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for dfWindow is not a number.");
+                    }
+
+                if (la.equals("--logCapacity"))
+                    try {
+                        logCapacity = Math.max(1, Integer.parseInt(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for logCapacity is not a number.");
+                    }
+
+                if (la.equals("--sseQueue"))
+                    try {
+                        sseQueue = Integer.parseInt(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for sseQueue is not a number.");
+                    }
+
+                if (la.equals("--cmdLimit"))
+                    try {
+                        cmdLimit = Integer.parseInt(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for cmdLimit is not a number.");
+                    }
+
+                if (la.equals("--cmdTimeout"))
+                    try {
+                        cmdTimeout = Long.parseLong(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for cmdTimeout is not a number.");
+                    }
+
+                if (la.equals("--cmdCache"))
+                    try {
+                        cmdCache = Integer.parseInt(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for cmdCache is not a number.");
+                    }
+
+                if (la.equals("--envSessions"))
+                    try {
+                        envSessions = Math.max(1, Integer.parseInt(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for envSessions is not a number.");
+                    }
+
+                if (la.equals("--msgConnections"))
+                    try {
+                        msgHostConnections = Math.max(1, Integer.parseInt(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for msgConnections is not a number.");
+                    }
+
+                if (la.equals("--msgQueue"))
+                    try {
+                        msgQueue = Math.max(1, Integer.parseInt(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for msgQueue is not a number.");
+                    }
+
+                if (la.equals("--msgRetries"))
+                    try {
+                        msgRetries = Math.max(0, Integer.parseInt(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for msgRetries is not a number.");
+                    }
+
+                if (la.equals("--msgMaxBytes"))
+                    try {
+                        msgMaxBytes = Math.max(1, Long.parseLong(a));
+                    } catch (Exception e) {
+                        System.err.println("The argument for msgMaxBytes is not a number.");
+                    }
+
+                if (la.equals("--msgFormat")) {
+                    if (a.equals("binary") || a.equals("json"))
+                        msgBinary = a.equals("binary");
+                    else
+                        System.err.println("The argument for msgFormat should be binary or json.");
+                }
+
+                if (la.equals("--msgChannel")) {
+                    if (a.equals("ws") || a.equals("http"))
+                        msgChannel = a.equals("ws");
+                    else
+                        System.err.println("The argument for msgChannel should be ws or http.");
+                }
+
+                if (la.equals("--envIdle"))
+                    try {
+                        envIdle = Long.parseLong(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for envIdle is not a number.");
+                    }
+
+                if (la.equals("--wpConsistency"))
+                    try {
+                        wpConsistency = WhitePages.Consistency.valueOf(a);
+                    } catch (Exception e) {
+                        System.err.println("The argument for wpConsistency should be eventual or strict.");
+                    }
                 la = a;
             }
         }
@@ -141,10 +301,72 @@ public class JCMRest extends DefaultPlatformImpl {
         restHttpServer = null;
         System.out.println("Http server stopped!");
 
+        synchronized (JCMRest.class) {
+            if (agentIndex != null) {
+                agentIndex.stop();
+                agentIndex = null;
+            }
+            if (changeVersions != null) {
+                changeVersions.stop();
+                changeVersions = null;
+            }
+            if (operations != null) {
+                operations.stop();
+                operations = null;
+            }
+            if (artifactIds != null) {
+                artifactIds.stop();
+                artifactIds = null;
+            }
+            if (sessionPool != null) {
+                sessionPool.stop();
+                sessionPool = null;
+            }
+            if (artifactEvents != null) {
+                artifactEvents.stop();
+                artifactEvents = null;
+            }
+            if (delivery != null) {
+                delivery.stop();
+                delivery = null;
+            }
+            if (nodeChannels != null) {
+                nodeChannels.stop();
+                nodeChannels = null;
+            }
+            if (channelServer != null) {
+                channelServer.stop();
+                WebSocketEngine.getEngine().unregister(channelServer);
+                channelServer = null;
+            }
+            if (msgClient != null) {
+                msgClient.close();
+                msgClient = null;
+                msgConnections = null;
+            }
+        }
+
         System.out.println("Stopping zookeeper...");
-        if (zkClient != null) {
-            zkClient.close();
-            zkClient = null;
+        if (wpRegistrar != null) {
+            wpRegistrar.stop();
+            wpRegistrar = null;
+        }
+        if (wp != null) {
+            wp.stop();
+            wp = null;
+        }
+        if (dfSubscriptions != null) {
+            dfSubscriptions.stop();
+            dfSubscriptions = null;
+        }
+        if (df != null) {
+            df.stop();
+            df = null;
+        }
+        if (zkPool != null) {
+            for (CuratorFramework c: zkPool)
+                c.close();
+            zkPool = null;
         }
 
         if (zkFactory != null) {
@@ -210,7 +432,24 @@ public class JCMRest extends DefaultPlatformImpl {
             RestAppConfig rc = new RestAppConfig();
 
             // get a server from factory
-            HttpServer s = GrizzlyHttpServerFactory.createHttpServer(restServerURI, rc);
+            HttpServer s = GrizzlyHttpServerFactory.createHttpServer(restServerURI, rc, false);
+
+            // WebSocket used by the other nodes to send messages
+            WebSocketAddOn ws = new WebSocketAddOn();
+            for (NetworkListener l: s.getListeners())
+                l.registerAddOn(ws);
+            synchronized (JCMRest.class) {
+                if (channelServer == null) {
+                    channelServer = new NodeChannelServer();
+                    WebSocketEngine.getEngine().register("", NodeChannelServer.PATH, channelServer);
+                }
+            }
+            try {
+                s.start();
+            } catch (IOException e) {
+                s.shutdownNow();
+                throw new javax.ws.rs.ProcessingException(e);
+            }
 
             System.out.println("JaCaMo Rest API is running on "+restServerURI);
             return s;
@@ -271,38 +510,281 @@ public class JCMRest extends DefaultPlatformImpl {
         }
     }
 
+    /**
+     * Returns the main ZK client of this JVM
+     */
     public static CuratorFramework getZKClient() throws Exception {
-        if (zkClient == null) {
-            if (getZKHost() == null) {
-                throw new Exception("ZK is not configured!");
-            } else {
-                zkClient = CuratorFrameworkFactory.newClient(getZKHost(), new ExponentialBackoffRetry(1000, 3));
-                zkClient.start();
+        return getZKPool()[0];
+    }
+
+    /**
+     * Returns the ZK client used by some owner (an agent usually).
+     *
+     * All the agents of the JVM share a small pool of clients (--zkPool, 1 by default)
+     * and an owner always gets the same client, so its ephemeral nodes belong
+     * to the same ZK session.
+     */
+    public static CuratorFramework getZKClient(String owner) throws Exception {
+        CuratorFramework[] pool = getZKPool();
+        if (pool.length == 1 || owner == null)
+            return pool[0];
+        return pool[(owner.hashCode() & 0x7fffffff) % pool.length];
+    }
+
+    protected static CuratorFramework[] getZKPool() throws Exception {
+        CuratorFramework[] pool = zkPool;
+        if (pool == null) {
+            synchronized (JCMRest.class) {
+                pool = zkPool;
+                if (pool == null) {
+                    if (getZKHost() == null)
+                        throw new Exception("ZK is not configured!");
+                    pool = new CuratorFramework[Math.max(1, zkPoolSize)];
+                    for (int i=0; i<pool.length; i++) {
+                        pool[i] = CuratorFrameworkFactory.newClient(getZKHost(), new ExponentialBackoffRetry(1000, 3));
+                        pool[i].start();
+                    }
+                    zkPool = pool;
+                }
             }
         }
-        return zkClient;
+        return pool;
     }
 
-    @SuppressWarnings("unchecked")
-    public static Map<String,Map<String,String>> getWP() throws Exception {
-        Map<String,Map<String,String>> data = new HashMap<>();
-        Gson gson = new Gson();
-        for (String ag : getZKClient().getChildren().forPath(JCMRest.JaCaMoZKAgNodeId)) {
+    /** number of entries kept in the log of each agent */
+    public static int getLogCapacity() {
+        return logCapacity;
+    }
 
-            // try to load metadata from ZK
-            Map<String,String> md;
-            try {
-                byte[] lmd = getZKClient().getData().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+ag+"/"+JaCaMoZKMDNodeId);
-                md = gson.fromJson(new String(lmd), Map.class);
-            } catch (Exception e) {
-                // no meta data
-                md = new HashMap<>();
-            }
-            if (!md.containsKey("uri"))
-                md.put("uri", new String(zkClient.getData().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+ag)));
-            data.put(ag, md);
+    /** number of events that can wait to be sent to a SSE client (older events are dropped) */
+    public static int getSSEQueueSize() {
+        return sseQueue;
+    }
+
+    /** max number of bytes of a binary batch of messages received from other nodes */
+    public static long getMsgMaxBytes() {
+        return msgMaxBytes;
+    }
+
+    /** number of commands (POST /agents/{name}/command) that can run at the same time */
+    public static int getCommandLimit() {
+        return cmdLimit;
+    }
+
+    /** default timeout (ms) of commands, 0 for no timeout */
+    public static long getCommandTimeout() {
+        return cmdTimeout;
+    }
+
+    /** number of parsed commands kept in memory (0 to disable the cache) */
+    public static int getCommandCacheSize() {
+        return cmdCache;
+    }
+
+    /** max number of CArtAgO sessions used by the API in each workspace (to create artifacts and execute operations) */
+    public static int getEnvSessions() {
+        return envSessions;
+    }
+
+    /** time (ms) after which a session not used is closed, 0 to keep sessions open */
+    public static long getEnvIdle() {
+        return envIdle;
+    }
+
+    /**
+     * Returns the HTTP client used to send messages to agents of other nodes.
+     *
+     * Connections are kept alive and reused (at most --msgConnections for each node),
+     * instead of opening a connection for each message.
+     */
+    public static synchronized Client getMessageClient() {
+        if (msgClient == null) {
+            msgConnections = new PoolingHttpClientConnectionManager();
+            msgConnections.setDefaultMaxPerRoute(msgHostConnections);
+            msgConnections.setMaxTotal(Math.max(200, msgHostConnections));
+            ClientConfig config = new ClientConfig()
+                    .connectorProvider(new ApacheConnectorProvider())
+                    .property(ApacheClientProperties.CONNECTION_MANAGER, msgConnections)
+                    .property(ClientProperties.CONNECT_TIMEOUT, 5000)
+                    .property(ClientProperties.READ_TIMEOUT, 30000);
+            msgClient = ClientBuilder.newClient(config);
+        }
+        return msgClient;
+    }
+
+    /**
+     * Returns the delivery of messages to agents of other nodes
+     * (queues of --msgQueue messages by node, --msgRetries retries, batches of 100 messages
+     * encoded as --msgFormat, sent by WebSocket unless --msgChannel http)
+     */
+    public static synchronized OutboundDelivery getOutboundDelivery() {
+        if (delivery == null)
+            delivery = new OutboundDelivery(msgQueue, 100, msgRetries, msgBinary, msgBinary && msgChannel ? getNodeChannels() : null);
+        return delivery;
+    }
+
+    /**
+     * Returns the WebSocket connections to other nodes (a batch not acknowledged in 30 s is posted)
+     */
+    public static synchronized NodeChannels getNodeChannels() {
+        if (nodeChannels == null)
+            nodeChannels = new NodeChannels(30000);
+        return nodeChannels;
+    }
+
+    /**
+     * metrics of the components of the platform, only those already started are included
+     * (reading the metrics does not start components)
+     */
+    public static synchronized Map<String,Object> getComponentMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        if (wp != null)              m.put("whitePages", wp.getMetrics());
+        if (wpRegistrar != null)     m.put("wpRegistrar", wpRegistrar.getMetrics());
+        if (df != null)              m.put("df", df.getMetrics());
+        if (dfSubscriptions != null) m.put("dfSubscriptions", dfSubscriptions.getMetrics());
+        if (agentIndex != null)      m.put("agentIndex", agentIndex.getMetrics());
+        if (changeVersions != null)  m.put("versions", changeVersions.getMetrics());
+        if (sessionPool != null)     m.put("envSessions", sessionPool.getMetrics());
+        if (operations != null)      m.put("operations", operations.getMetrics());
+        if (artifactIds != null)     m.put("artifactIds", artifactIds.getMetrics());
+        if (delivery != null)        m.put("outboundMessages", delivery.getMetrics());
+        return m;
+    }
+
+    public static synchronized Map<String,Object> getNodeChannelMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        if (nodeChannels != null)
+            m.put("client", nodeChannels.getMetrics());
+        if (channelServer != null)
+            m.put("server", channelServer.getMetrics());
+        return m;
+    }
+
+    public static synchronized Map<String,Object> getMessageClientMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("maxByNode", msgHostConnections);
+        if (msgConnections != null) {
+            m.put("leased", msgConnections.getTotalStats().getLeased());
+            m.put("available", msgConnections.getTotalStats().getAvailable());
+            m.put("pending", msgConnections.getTotalStats().getPending());
         }
+        return m;
+    }
+
+    /**
+     * Returns the white pages, kept in memory and updated by ZK watches
+     * (started on the first use).
+     */
+    public static synchronized WhitePages getWhitePages() throws Exception {
+        if (wp == null) {
+            WhitePages w = new WhitePages(getZKClient(), wpConsistency);
+            w.start();
+            wp = w;
+        }
+        return wp;
+    }
+
+    /**
+     * Returns the component that registers agents in the WP using batched transactions
+     */
+    public static synchronized WPRegistrar getWPRegistrar() throws Exception {
+        if (wpRegistrar == null)
+            wpRegistrar = new WPRegistrar(getZKClient(), wpBatch);
+        return wpRegistrar;
+    }
+
+    /** the registrar of the WP if it is already started, null otherwise (it is not started) */
+    public static synchronized WPRegistrar getWPRegistrarIfStarted() {
+        return wpRegistrar;
+    }
+
+    /**
+     * Returns the index of the DF, kept in memory and updated by ZK watches
+     * (started on the first use).
+     */
+    public static synchronized DFIndex getDFIndex() throws Exception {
+        if (df == null) {
+            DFIndex d = new DFIndex(getZKClient());
+            d.start();
+            df = d;
+        }
+        return df;
+    }
 
-        return data;
+    /**
+     * Returns the manager of the DF subscriptions of the agents
+     */
+    public static synchronized DFSubscriptions getDFSubscriptions() throws Exception {
+        if (dfSubscriptions == null)
+            dfSubscriptions = new DFSubscriptions(getDFIndex(), dfWindow);
+        return dfSubscriptions;
+    }
+
+    /** the DF index if it is already started, null otherwise (it is not started) */
+    public static synchronized DFIndex getDFIndexIfStarted() {
+        return df;
+    }
+
+    /** the manager of the DF subscriptions if it is already started, null otherwise (it is not started) */
+    public static synchronized DFSubscriptions getDFSubscriptionsIfStarted() {
+        return dfSubscriptions;
+    }
+
+    /**
+     * Returns the hub of CArtAgO events of this node
+     */
+    public static synchronized ArtifactEvents getArtifactEvents() {
+        if (artifactEvents == null)
+            artifactEvents = new ArtifactEvents();
+        return artifactEvents;
+    }
+
+    /**
+     * Returns the index agent -> roles, missions and observed artifacts
+     */
+    public static synchronized AgentIndex getAgentIndex() {
+        if (agentIndex == null)
+            agentIndex = new AgentIndex(getArtifactEvents());
+        return agentIndex;
+    }
+
+    /**
+     * Returns the versions of workspaces, artifacts, organisations and agents (used for ETags)
+     */
+    public static synchronized ChangeVersions getChangeVersions() {
+        if (changeVersions == null)
+            changeVersions = new ChangeVersions(getArtifactEvents());
+        return changeVersions;
+    }
+
+    /**
+     * Returns the CArtAgO sessions used by the API to create artifacts and execute operations
+     */
+    public static synchronized SessionPool getSessionPool() {
+        if (sessionPool == null)
+            sessionPool = new SessionPool(envSessions, envIdle);
+        return sessionPool;
+    }
+
+    /**
+     * Returns the operations executed in artifacts by the API (at most --cmdLimit running, the last 1000 are kept)
+     */
+    public static synchronized OperationTracker getOperationTracker() {
+        if (operations == null)
+            operations = new OperationTracker(getArtifactEvents(), cmdLimit, 1000);
+        return operations;
+    }
+
+    /**
+     * Returns the ids of the artifacts used by the API to execute operations
+     */
+    public static synchronized ArtifactIdCache getArtifactIds() {
+        if (artifactIds == null)
+            artifactIds = new ArtifactIdCache(getArtifactEvents());
+        return artifactIds;
+    }
+
+    public static Map<String,Map<String,String>> getWP() throws Exception {
+        return getWhitePages().getAll();
     }
 }
@@ -1,26 +1,14 @@
 package jacamo.rest;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.curator.x.async.WatchMode;
+import org.apache.curator.framework.CuratorFramework;
 import org.apache.zookeeper.CreateMode;
 
-import jacamo.rest.config.RestAgArch;
-import jason.architecture.AgArch;
-import jason.asSemantics.Unifier;
-import jason.asSyntax.ASSyntax;
-import jason.asSyntax.Atom;
-import jason.asSyntax.Literal;
-import jason.asSyntax.StringTermImpl;
-import jason.asSyntax.Term;
-import jason.asSyntax.UnnamedVar;
-import jason.infra.centralised.BaseCentralisedMAS;
 import jason.runtime.DelegatedRuntimeServices;
 import jason.runtime.RuntimeServicesFactory;
 
@@ -35,11 +23,14 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
         try {
             if (type == null) type = "no-type";
             String node = JCMRest.JaCaMoZKDFNodeId+"/"+service+"/"+agName;
-            if (JCMRest.getZKClient().checkExists().forPath(node) == null) {
-                JCMRest.getZKClient().create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(node, type.getBytes());
+            // the ephemeral node is created by the ZK client (session) of the agent
+            CuratorFramework zk = JCMRest.getZKClient(agName);
+            if (zk.checkExists().forPath(node) == null) {
+                zk.create().creatingParentsIfNeeded().withMode(CreateMode.EPHEMERAL).forPath(node, type.getBytes());
             } else {
-                JCMRest.getZKClient().setData().forPath(node, type.getBytes());
+                zk.setData().forPath(node, type.getBytes());
             }
+            JCMRest.getDFIndex().add(service, agName);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -48,7 +39,8 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
     @Override
     public void dfDeRegister(String agName, String service, String type) {
         try {
-            JCMRest.getZKClient().delete().forPath(JCMRest.JaCaMoZKDFNodeId+"/"+service+"/"+agName);
+            JCMRest.getZKClient(agName).delete().forPath(JCMRest.JaCaMoZKDFNodeId+"/"+service+"/"+agName);
+            JCMRest.getDFIndex().remove(service, agName);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -58,6 +50,10 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
     public Collection<String> dfSearch(String service, String type) {
         Set<String> ags = new HashSet<>();
         try {
+            DFIndex df = JCMRest.getDFIndex();
+            if (df.isSynced())
+                return df.getProviders(service);
+
             if (JCMRest.getZKClient().checkExists().forPath(JCMRest.JaCaMoZKDFNodeId+"/"+service) != null) {
                 for (String r : JCMRest.getZKClient().getChildren().forPath(JCMRest.JaCaMoZKDFNodeId+"/"+service)) {
                     ags.add(r);
@@ -72,28 +68,8 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
     @Override
     public void dfSubscribe(String agName, String service, String type) {
         try {
-            RestAgArch arch = getRestAgArch(agName); 
-            arch.getAsyncCurator()
-                .with(WatchMode.successOnly).watched().getChildren().forPath(JCMRest.JaCaMoZKDFNodeId+"/"+service).event().thenAccept(event -> {
-                    try {
-                        //System.out.println("something changed...."+event.getType()+"/"+event.getState());
-                        // stupid implementation: send them all again and
-                        dfSubscribe(agName, service, type); // keep watching
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
-
-            // update providers
-            Term s = new Atom("df");
-            Literal l = ASSyntax.createLiteral("provider", new UnnamedVar(), new StringTermImpl(service));
-            l.addSource(s);
-            arch.getTS().getAg().abolish(l, new Unifier());
-            for (String a: dfSearch(service, type)) {
-                l = ASSyntax.createLiteral("provider", new Atom(a), new StringTermImpl(service));
-                l.addSource(s);
-                arch.getTS().getAg().addBel(l);
-            }
+            // the beliefs provider(_,service) of the agent are updated by the subscription manager
+            JCMRest.getDFSubscriptions().subscribe(agName, service);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -104,11 +80,7 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
     public Collection<String> getAgentsNames() {
         // use ZK WP
         try {
-            List<String> all = new ArrayList<>();
-            for (String ag : JCMRest.getZKClient().getChildren().forPath(JCMRest.JaCaMoZKAgNodeId)) {
-                all.add(ag);
-            }
-            return all;
+            return JCMRest.getWhitePages().getNames();
         } catch (Exception e) {
             e.printStackTrace();
             return super.getAgentsNames();
@@ -121,6 +93,10 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
             return super.getDF();
         } else {
             try {
+                DFIndex df = JCMRest.getDFIndex();
+                if (df.isSynced())
+                    return df.getDF();
+
                 Map<String, Set<String>> commonDF = new HashMap<String, Set<String>>();
 
                 for (String s : JCMRest.getZKClient().getChildren().forPath(JCMRest.JaCaMoZKDFNodeId)) {
@@ -135,21 +111,22 @@ public class JCMRuntimeServices extends DelegatedRuntimeServices {
             }
         }
     }  
-    
-    Map<String, RestAgArch> archCache = new HashMap<>();
-    
-    protected RestAgArch getRestAgArch(String agName) {
-        return archCache.computeIfAbsent(agName, k -> {
-            AgArch arch = BaseCentralisedMAS.getRunner().getAg(agName).getFirstAgArch();
-            while (arch != null) {
-                if (arch instanceof RestAgArch) {
-                    return (RestAgArch)arch;
-                }
-                arch = arch.getNextAgArch();
+
+    /** services provided by an agent */
+    public Set<String> getAgentServices(String agName) {
+        if (JCMRest.getZKHost() == null) {
+            return super.getDF().get(agName);
+        } else {
+            try {
+                DFIndex df = JCMRest.getDFIndex();
+                if (df.isSynced())
+                    return df.getServices(agName);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-            return null;
-        });
+            Map<String, Set<String>> commonDF = getDF();
+            return commonDF == null ? null : commonDF.get(agName);
+        }
     }
 
 }
-
@@ -0,0 +1,88 @@
+package jacamo.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.glassfish.grizzly.websockets.DataFrame;
+import org.glassfish.grizzly.websockets.WebSocket;
+import org.glassfish.grizzly.websockets.WebSocketApplication;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.mediation.TranslAg;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.MessageStream;
+
+/**
+ * WebSocket (ws://host:port/agents/_ws) used by the other nodes to send messages to the agents
+ * of this node (see {@link NodeChannels}).
+ *
+ * Each binary frame is a batch: its id (8 bytes) followed by the messages encoded by the MessageCodec.
+ * The messages are delivered in the order they are received and the batch is acknowledged by a text
+ * frame with the summary of the batch: {"batch": id, "accepted": n, "rejected": [{"index": i, ...}]}.
+ */
+public class NodeChannelServer extends WebSocketApplication {
+
+    public static final String PATH = "/agents/_ws";
+
+    protected final TranslAg       tAg     = new TranslAg();
+    protected final Gson           gson    = JsonMapper.getGson();
+    protected final Set<WebSocket> sockets = ConcurrentHashMap.newKeySet();
+
+    protected final AtomicLong batches  = new AtomicLong();
+    protected final AtomicLong accepted = new AtomicLong();
+    protected final AtomicLong rejected = new AtomicLong();
+
+    public void stop() {
+        for (WebSocket s: sockets)
+            s.close();
+        sockets.clear();
+    }
+
+    @Override
+    public void onConnect(WebSocket socket) {
+        super.onConnect(socket);
+        sockets.add(socket);
+    }
+
+    @Override
+    public void onClose(WebSocket socket, DataFrame frame) {
+        super.onClose(socket, frame);
+        sockets.remove(socket);
+    }
+
+    @Override
+    public void onMessage(WebSocket socket, byte[] frame) {
+        Map<String,Object> ack;
+        long batch = -1;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            batch = in.readLong();
+            MessageStream.Summary s = MessageStream.readBinary(in, Math.min(frame.length - 8, JCMRest.getMsgMaxBytes()), m -> tAg.addMessageToAgentMailbox(m, m.getReceiver()));
+            accepted.addAndGet(s.getAccepted());
+            rejected.addAndGet(s.getRejected().size());
+            ack = s.toMap();
+        } catch (Exception e) {
+            ack = new LinkedHashMap<>();
+            ack.put("error", e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+        batches.incrementAndGet();
+        ack.put("batch", batch);
+        socket.send(gson.toJson(ack));
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("connections", sockets.size());
+        m.put("batches", batches.get());
+        m.put("accepted", accepted.get());
+        m.put("rejected", rejected.get());
+        return m;
+    }
+}
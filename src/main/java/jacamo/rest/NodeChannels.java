@@ -0,0 +1,229 @@
+package jacamo.rest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.CloseReason;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+
+import org.glassfish.tyrus.client.ClientManager;
+import org.glassfish.tyrus.client.ClientProperties;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * WebSocket connections to the other nodes (see {@link NodeChannelServer}), used to send the batches
+ * of messages of all agents of this node to the agents of a node over one long-lived connection
+ * (instead of one HTTP request by batch).
+ *
+ * Flow control: the sender waits for the acknowledgement of a batch (the receiver has delivered its
+ * messages) before sending the next one, so a slow node slows down the delivery to it and the messages
+ * wait in the bounded queues of the OutboundDelivery.
+ *
+ * A node without the WebSocket (or whose connection fails) is considered unavailable for one minute:
+ * send returns null and the caller posts the batch to the REST inbox. This is done only for batches
+ * that were not written in the connection: a batch written but not acknowledged in <i>ackTimeout</i> ms
+ * (or whose connection closes before the acknowledgement) may have been delivered, so it is not sent
+ * again and send throws a {@link NotAcknowledgedException} (the node is also considered unavailable).
+ */
+public class NodeChannels {
+
+    /** a batch written in the connection but not acknowledged: its messages may have been delivered or not */
+    public static class NotAcknowledgedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public NotAcknowledgedException(String msg) {
+            super(msg);
+        }
+    }
+
+    /** the connection to a node */
+    protected class Channel extends Endpoint {
+        final String  url;
+        volatile Session session;
+        final Map<Long, CompletableFuture<JsonObject>> acks = new ConcurrentHashMap<>(); // batch id -> ack
+
+        Channel(String url) {
+            this.url = url;
+        }
+
+        boolean isOpen() {
+            Session s = session;
+            return s != null && s.isOpen();
+        }
+
+        @Override
+        public void onOpen(Session s, EndpointConfig config) {
+            s.addMessageHandler(new MessageHandler.Whole<String>() {
+                @Override
+                public void onMessage(String text) {
+                    acked(text);
+                }
+            });
+        }
+
+        void acked(String text) {
+            try {
+                JsonObject ack = new JsonParser().parse(text).getAsJsonObject();
+                CompletableFuture<JsonObject> f = acks.remove(ack.get("batch").getAsLong());
+                if (f != null)
+                    f.complete(ack);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void onClose(Session s, CloseReason reason) {
+            closed("connection closed: " + reason.getReasonPhrase());
+        }
+
+        @Override
+        public void onError(Session s, Throwable e) {
+            closed(e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+
+        void closed(String reason) {
+            channels.remove(url, this);
+            for (CompletableFuture<JsonObject> f: acks.values())
+                f.completeExceptionally(new IOException(reason));
+            acks.clear();
+        }
+
+        void close() {
+            try {
+                Session s = session;
+                if (s != null)
+                    s.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    protected final ClientManager        client;
+    protected final long                 ackTimeout;
+    protected final long                 retryAfter = 60000; // ms a node stays unavailable
+
+    protected final Map<String, Channel> channels    = new ConcurrentHashMap<>(); // ws url -> channel
+    protected final Map<String, Object>  connecting  = new ConcurrentHashMap<>(); // ws url -> lock to open its channel
+    protected final Map<String, Long>    unavailable = new ConcurrentHashMap<>(); // ws url -> time to try again
+
+    protected final AtomicLong ids       = new AtomicLong();
+    protected final AtomicLong batches   = new AtomicLong();
+    protected final AtomicLong connects  = new AtomicLong();
+    protected final AtomicLong fallbacks = new AtomicLong();
+    protected final AtomicLong notAcked  = new AtomicLong();
+
+    /**
+     * @param ackTimeout ms waiting the acknowledgement of a batch
+     */
+    public NodeChannels(long ackTimeout) {
+        this.ackTimeout = ackTimeout;
+        this.client     = ClientManager.createClient();
+        client.getProperties().put(ClientProperties.HANDSHAKE_TIMEOUT, 5000L);
+    }
+
+    public void stop() {
+        for (Channel c: channels.values())
+            c.close();
+        channels.clear();
+        connecting.clear();
+        client.shutdown();
+    }
+
+    /**
+     * sends a batch of messages encoded by the MessageCodec to the node and waits for its acknowledgement
+     *
+     * @param nodeUrl the base of the inboxes of the node (http://host:port/agents/)
+     * @return the acknowledgement {"batch": id, "accepted": n, "rejected": [...]}, or null if the node
+     *         has no channel available (the batch was not sent and has to be posted)
+     * @throws NotAcknowledgedException if the batch was sent but not acknowledged (it must not be sent again)
+     */
+    public JsonObject send(String nodeUrl, byte[] batch) throws NotAcknowledgedException {
+        String url = nodeUrl.replaceFirst("^http", "ws") + "_ws";
+        Long until = unavailable.get(url);
+        if (until != null) {
+            if (System.currentTimeMillis() < until)
+                return null;
+            unavailable.remove(url);
+        }
+
+        Channel c = null;
+        long id = ids.incrementAndGet();
+        boolean written = false;
+        try {
+            c = open(url);
+            CompletableFuture<JsonObject> ack = new CompletableFuture<>();
+            c.acks.put(id, ack);
+            ByteBuffer frame = ByteBuffer.allocate(8 + batch.length);
+            frame.putLong(id).put(batch).flip();
+            synchronized (c) {
+                c.session.getBasicRemote().sendBinary(frame);
+            }
+            written = true;
+            JsonObject r = ack.get(ackTimeout, TimeUnit.MILLISECONDS);
+            batches.incrementAndGet();
+            return r;
+        } catch (Exception e) {
+            unavailable.put(url, System.currentTimeMillis() + retryAfter);
+            if (c != null) {
+                c.acks.remove(id);
+                c.close();
+            }
+            if (written) {
+                notAcked.incrementAndGet();
+                String reason = e instanceof TimeoutException ? "no acknowledgement in " + ackTimeout + " ms"
+                              : e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                throw new NotAcknowledgedException("batch sent to " + nodeUrl + " but not acknowledged (" + reason + ")");
+            }
+            fallbacks.incrementAndGet();
+            return null;
+        }
+    }
+
+    protected Channel open(String url) throws Exception {
+        Channel c = channels.get(url);
+        if (c != null && c.isOpen())
+            return c;
+        synchronized (connecting.computeIfAbsent(url, k -> new Object())) { // a slow node does not delay the others
+            c = channels.get(url);
+            if (c != null && c.isOpen())
+                return c;
+            c = new Channel(url);
+            c.session = client.connectToServer(c, ClientEndpointConfig.Builder.create().build(), new URI(url));
+            c.session.setMaxIdleTimeout(0); // long-lived
+            channels.put(url, c);
+            connects.incrementAndGet();
+            return c;
+        }
+    }
+
+    public Map<String,Object> getMetrics() {
+        int open = 0;
+        for (Channel c: channels.values())
+            if (c.isOpen())
+                open++;
+        Map<String,Object> m = new HashMap<>();
+        m.put("open", open);
+        m.put("unavailable", unavailable.size());
+        m.put("connects", connects.get());
+        m.put("batches", batches.get());
+        m.put("fallbacks", fallbacks.get());
+        m.put("notAcknowledged", notAcked.get());
+        return m;
+    }
+}
@@ -0,0 +1,217 @@
+package jacamo.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.Op;
+import cartago.OpFeedbackParam;
+import cartago.Tuple;
+import jacamo.rest.data.OperationView;
+import jason.asSyntax.NumberTerm;
+import jason.asSyntax.StringTerm;
+
+/**
+ * Operations executed in artifacts by the API, with their outcome.
+ *
+ * An operation is finished by the CArtAgO event opCompleted/opFailed of its Op (the Op
+ * object given to CArtAgO is the one received by the loggers of the workspace) or by its
+ * executor when the action returns (succeeded) or fails, whichever comes first; the values of
+ * its output parameters (OpFeedbackParam added after the arguments) are then available.
+ * The last <i>capacity</i> operations can be retrieved by their id.
+ */
+public class OperationTracker extends ArtifactEvents.Listener {
+
+    /** an operation being executed or finished */
+    public static class Operation {
+        protected final String id;
+        protected final String wksName;
+        protected final String artName;
+        protected final Op     op;
+        protected final OpFeedbackParam<?>[] outputs;
+        protected final long   started = System.currentTimeMillis();
+        protected final CompletableFuture<OperationView> done = new CompletableFuture<>();
+
+        Operation(String id, String wksName, String artName, Op op, OpFeedbackParam<?>[] outputs) {
+            this.id      = id;
+            this.wksName = wksName;
+            this.artName = artName;
+            this.op      = op;
+            this.outputs = outputs;
+        }
+
+        public String getId() { return id; }
+        public Op     getOp() { return op; }
+
+        /** completed with the final state of the operation */
+        public CompletableFuture<OperationView> getCompletion() {
+            return done;
+        }
+
+        /** the current state of the operation */
+        public OperationView getView() {
+            OperationView v = done.getNow(null);
+            return v != null ? v : new OperationView(id, wksName, artName, op.getName(), OperationView.RUNNING, null, null, started, 0);
+        }
+    }
+
+    protected final ArtifactEvents hub;
+    protected final int            limit;
+    protected final int            capacity;
+    protected final Semaphore      permits; // one by running operation
+
+    protected final Map<Op, Operation>     running    = Collections.synchronizedMap(new IdentityHashMap<>());
+    protected final Map<String, Operation> operations;
+    protected final String                 prefix     = "op" + Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    protected final AtomicLong ids       = new AtomicLong();
+    protected final AtomicLong succeeded = new AtomicLong();
+    protected final AtomicLong failed    = new AtomicLong();
+
+    /**
+     * @param limit    max number of operations running at the same time
+     * @param capacity number of operations kept to be retrieved by id
+     */
+    @SuppressWarnings("serial")
+    public OperationTracker(ArtifactEvents hub, int limit, int capacity) {
+        this.hub      = hub;
+        this.limit    = limit;
+        this.capacity = capacity;
+        this.permits  = new Semaphore(limit);
+        this.operations = new LinkedHashMap<String, Operation>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Operation> eldest) {
+                return size() > OperationTracker.this.capacity;
+            }
+        };
+        hub.addListener(this);
+    }
+
+    public void stop() {
+        hub.removeListener(this);
+        for (Operation o: new ArrayList<>(running.values()))
+            finish(o, OperationView.FAILED, "platform stopped");
+    }
+
+    /**
+     * registers a new operation, to be executed by the caller with getOp()
+     *
+     * @param values  arguments of the operation (may be null)
+     * @param outputs number of output parameters of the operation (after the arguments)
+     * @throws RejectedExecutionException if there are too many operations running
+     */
+    public Operation create(String wksName, String artName, String opName, Object[] values, int outputs) {
+        hub.attach(); // the events of the workspace are needed to know the outcome
+        if (!permits.tryAcquire())
+            throw new RejectedExecutionException("Too many operations running, try again later");
+
+        int nargs = values == null ? 0 : values.length;
+        Object[] args = values == null ? new Object[outputs] : Arrays.copyOf(values, nargs + outputs);
+        OpFeedbackParam<?>[] outs = new OpFeedbackParam<?>[outputs];
+        for (int i = 0; i < outputs; i++) {
+            outs[i] = new OpFeedbackParam<Object>();
+            args[nargs + i] = outs[i];
+        }
+        Operation o = new Operation(prefix + ids.incrementAndGet(), wksName, artName, new Op(opName, args), outs);
+        running.put(o.op, o);
+        synchronized (operations) {
+            operations.put(o.id, o);
+        }
+        return o;
+    }
+
+    /** the operation with the id, null if unknown (or no longer kept) */
+    public Operation get(String id) {
+        synchronized (operations) {
+            return operations.get(id);
+        }
+    }
+
+    /** finishes the operation as succeeded (the action returned without error) */
+    public void succeeded(Operation o) {
+        finish(o, OperationView.SUCCEEDED, null);
+    }
+
+    /** finishes the operation as failed (e.g., the artifact does not exist or the action could not be done) */
+    public void failed(Operation o, Throwable e) {
+        finish(o, OperationView.FAILED, e.getMessage() == null ? e.toString() : e.getMessage());
+    }
+
+    protected void finish(Operation o, String state, String error) {
+        if (running.remove(o.op) == null)
+            return; // already finished
+        permits.release();
+        List<Object> outs = null;
+        if (OperationView.SUCCEEDED.equals(state)) {
+            succeeded.incrementAndGet();
+            outs = new ArrayList<>();
+            for (OpFeedbackParam<?> p: o.outputs)
+                outs.add(toJsonValue(p.get()));
+        } else {
+            failed.incrementAndGet();
+        }
+        o.done.complete(new OperationView(o.id, o.wksName, o.artName, o.op.getName(), state, outs, error, o.started, System.currentTimeMillis()));
+    }
+
+    /** values of output parameters as values written by the JsonMapper */
+    protected static Object toJsonValue(Object v) {
+        if (v == null || v instanceof Number || v instanceof String || v instanceof Boolean)
+            return v;
+        if (v instanceof StringTerm)
+            return ((StringTerm)v).getString();
+        if (v instanceof NumberTerm) {
+            try {
+                return ((NumberTerm)v).solve();
+            } catch (Exception e) {
+                return v.toString();
+            }
+        }
+        if (v instanceof Object[])
+            v = Arrays.asList((Object[])v);
+        if (v instanceof Collection) {
+            List<Object> l = new ArrayList<>();
+            for (Object i: (Collection<?>)v)
+                l.add(toJsonValue(i));
+            return l;
+        }
+        return v.toString();
+    }
+
+    @Override
+    public void opCompleted(long when, AgentId who, ArtifactId aid, Op op) {
+        Operation o = running.get(op);
+        if (o != null)
+            finish(o, OperationView.SUCCEEDED, null);
+    }
+
+    @Override
+    public void opFailed(long when, AgentId who, ArtifactId aid, Op op, String msg, Tuple descr) {
+        Operation o = running.get(op);
+        if (o != null)
+            finish(o, OperationView.FAILED, msg);
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("limit", limit);
+        m.put("running", running.size());
+        m.put("succeeded", succeeded.get());
+        m.put("failed", failed.get());
+        synchronized (operations) {
+            m.put("kept", operations.size());
+        }
+        return m;
+    }
+}
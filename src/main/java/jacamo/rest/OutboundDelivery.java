@@ -0,0 +1,395 @@
+package jacamo.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.Message;
+import jacamo.rest.util.MessageCodec;
+
+/**
+ * Delivery of messages to agents of other nodes, so that the sending agent does not wait
+ * for the HTTP requests.
+ *
+ * Messages are queued by destination node (at most <i>queueSize</i> messages by node) and
+ * sent by the threads of the delivery: the messages waiting for a node when a request finishes
+ * are sent together in the next request (POST /agents/_batch/inbox of the node). Each node with
+ * a request running has its own thread, so a slow node does not delay the others. A request that
+ * fails (connection error or 5xx) is retried with exponential backoff, after <i>retries</i> the
+ * messages are dropped. The sender is notified of every message not delivered (queue full,
+ * node unreachable, receiver not found).
+ *
+ * Inboxes that are not /agents/{name}/inbox of a jacamo-rest node (or nodes that do not
+ * answer the batch path) receive one POST by message.
+ *
+ * When <i>binary</i> is set, batches are encoded by the {@link MessageCodec}; a node that answers
+ * 415 (Unsupported Media Type) receives JSON from then on. Messages posted one by one are JSON.
+ * Binary batches are sent by the WebSocket of the node (see {@link NodeChannels}) when
+ * <i>channels</i> is given and the node has it, otherwise they are posted. The messages of a batch
+ * sent by the WebSocket but not acknowledged are not sent again, the sender is notified.
+ */
+public class OutboundDelivery {
+
+    /** called for messages not delivered */
+    public interface FailureCallback extends BiConsumer<jason.asSemantics.Message, String> {}
+
+    static class Pending {
+        final jason.asSemantics.Message msg;
+        final String                    inbox;
+        final FailureCallback           onFailure;
+
+        Pending(jason.asSemantics.Message msg, String inbox, FailureCallback onFailure) {
+            this.msg       = msg;
+            this.inbox     = inbox;
+            this.onFailure = onFailure;
+        }
+    }
+
+    /** the queue of a destination node, at most one request by node is running */
+    static class Node {
+        final String         key;
+        volatile String      batchUrl; // null if messages are posted one by one
+        volatile boolean     binary;   // batches encoded by the MessageCodec
+        final Deque<Pending> queue   = new ArrayDeque<>();
+        boolean              running = false;
+        int                  sending  = 0; // messages of the current batch (counted in queueSize, they may go back to the queue)
+        int                  attempts = 0; // of the current batch
+
+        Node(String key, String batchUrl, boolean binary) {
+            this.key      = key;
+            this.batchUrl = batchUrl;
+            this.binary   = binary;
+        }
+    }
+
+    static final Pattern inboxPattern = Pattern.compile("^(.*/agents/)[^/]+/inbox/?$");
+
+    protected final int  queueSize;
+    protected final int  batchSize;
+    protected final int  retries;
+    protected final boolean binary;
+    protected final NodeChannels channels; // null if batches are only posted
+    protected final long backoff = 100; // ms, doubled at each retry
+
+    protected final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    protected final Gson              gson  = JsonMapper.getGson();
+
+    // at most one thread by node is busy sending (requests are blocking)
+    protected final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "jcm-msg-delivery");
+        t.setDaemon(true);
+        return t;
+    });
+    // only waits for the backoff of the retries
+    protected final ScheduledExecutorService backoffs = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jcm-msg-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    protected final AtomicLong queued   = new AtomicLong();
+    protected final AtomicLong sent     = new AtomicLong();
+    protected final AtomicLong requests = new AtomicLong();
+    protected final AtomicLong retried  = new AtomicLong();
+    protected final AtomicLong dropped  = new AtomicLong();
+    protected final AtomicLong failed   = new AtomicLong();
+    protected final AtomicLong bytes    = new AtomicLong(); // of the batches
+
+    /**
+     * @param queueSize max number of messages waiting for each node
+     * @param batchSize max number of messages in one request
+     * @param retries   number of times a failed request is retried
+     * @param binary    whether batches are first sent encoded by the MessageCodec
+     * @param channels  WebSockets used to send binary batches (null to only post them)
+     */
+    public OutboundDelivery(int queueSize, int batchSize, int retries, boolean binary, NodeChannels channels) {
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.retries   = retries;
+        this.binary    = binary;
+        this.channels  = channels;
+    }
+
+    public void stop() {
+        backoffs.shutdownNow();
+        senders.shutdownNow();
+        nodes.clear();
+    }
+
+    /** queues the message to be posted to the inbox, the caller does not wait */
+    public void send(jason.asSemantics.Message m, String inbox, FailureCallback onFailure) {
+        Matcher match = inboxPattern.matcher(inbox);
+        String  base  = match.matches() ? match.group(1) : inbox;
+        Node    node  = nodes.computeIfAbsent(base, k -> new Node(k, match.matches() ? k + "_batch/inbox" : null, binary));
+        Pending p     = new Pending(m, inbox, onFailure);
+        synchronized (node) {
+            if (node.queue.size() + node.sending >= queueSize) {
+                dropped.incrementAndGet();
+                fail(p, "queue of " + node.key + " is full");
+                return;
+            }
+            node.queue.add(p);
+            queued.incrementAndGet();
+            if (!node.running) {
+                node.running = true;
+                senders.execute(() -> deliver(node));
+            }
+        }
+    }
+
+    /** sends the next batch of the node */
+    protected void deliver(Node node) {
+        List<Pending> batch = new ArrayList<>();
+        synchronized (node) {
+            while (batch.size() < batchSize && !node.queue.isEmpty())
+                batch.add(node.queue.poll());
+            node.sending = batch.size();
+        }
+        if (batch.isEmpty()) {
+            finished(node);
+            return;
+        }
+
+        String error = null;
+        try {
+            requests.incrementAndGet();
+            sent.addAndGet(node.batchUrl == null ? postOneByOne(batch) : postBatch(node, batch));
+        } catch (Exception e) {
+            error = e.getMessage() == null ? e.toString() : e.getMessage();
+        }
+
+        synchronized (node) {
+            if (error != null && node.attempts < retries) {
+                // back to the queue (in the same order) to be retried, the bound of the queue
+                // is kept since the messages being sent are counted in it
+                for (int i = batch.size() - 1; i >= 0; i--)
+                    node.queue.addFirst(batch.get(i));
+                node.sending = 0;
+                retried.incrementAndGet();
+                long delay = backoff << node.attempts;
+                node.attempts++;
+                backoffs.schedule(() -> senders.execute(() -> deliver(node)), delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            node.attempts = 0;
+            node.sending  = 0;
+        }
+        if (error != null) {
+            dropped.addAndGet(batch.size());
+            for (Pending p: batch)
+                fail(p, "node " + node.key + " not reachable: " + error);
+        }
+        finished(node);
+    }
+
+    /** starts the next batch, if any */
+    protected void finished(Node node) {
+        synchronized (node) {
+            if (node.queue.isEmpty()) {
+                node.running = false;
+                return;
+            }
+        }
+        senders.execute(() -> deliver(node));
+    }
+
+    /**
+     * posts the messages to the batch path of the node
+     * @return number of messages delivered
+     * @throws Exception if the request has to be retried
+     */
+    protected int postBatch(Node node, List<Pending> batch) throws Exception {
+        boolean bin  = node.binary;
+        byte[]  body = bin ? encodeBinary(batch) : encodeJson(batch);
+        if (bin && channels != null) {
+            try {
+                JsonObject ack = channels.send(node.key, body);
+                if (ack != null)
+                    return delivered(batch, ack);
+                // no channel to the node, the batch is posted
+            } catch (NodeChannels.NotAcknowledgedException e) {
+                // the messages may have been delivered, they are not sent again
+                dropped.addAndGet(batch.size());
+                for (Pending p: batch)
+                    fail(p, e.getMessage());
+                return 0;
+            }
+        }
+
+        Response r = getClient()
+                .target(node.batchUrl)
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(body, bin ? MessageCodec.MEDIA_TYPE : MediaType.APPLICATION_JSON));
+        try {
+            if (bin && r.getStatus() == 415) {
+                // the node does not know the binary format
+                node.binary = false;
+                r.close();
+                return postBatch(node, batch);
+            }
+            if (r.getStatus() == 404 || r.getStatus() == 405) {
+                // the node has no batch path
+                node.batchUrl = null;
+                return postOneByOne(batch);
+            }
+            if (r.getStatus() >= 500)
+                throw new Exception("status " + r.getStatus());
+
+            int ok = batch.size();
+            JsonObject summary = null;
+            if (r.getStatus() < 300 && r.hasEntity()) {
+                summary = new JsonParser().parse(r.readEntity(String.class)).getAsJsonObject();
+            } else if (r.getStatus() == 400 && r.hasEntity()) {
+                // the batch could not be read, but the messages read before the error were delivered
+                try {
+                    summary = new JsonParser().parse(r.readEntity(String.class)).getAsJsonObject();
+                } catch (Exception e) {
+                    // not a summary, no message was delivered
+                }
+            }
+            if (summary != null) {
+                ok = delivered(batch, summary);
+            } else if (r.getStatus() >= 300) {
+                for (Pending p: batch)
+                    fail(p, "status " + r.getStatus());
+                ok = 0;
+            }
+            return ok;
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * notifies the messages rejected by the node, from its summary of the batch
+     * {"accepted": n, "rejected": [{"index": i, "error": ...}], "error": ...}
+     * (if the batch could not be read, the messages after the error are also not delivered)
+     * @return number of messages delivered
+     */
+    protected int delivered(List<Pending> batch, JsonObject res) {
+        int ok   = batch.size();
+        int read = 0;
+        if (res.has("accepted"))
+            read += res.get("accepted").getAsInt();
+        if (res.has("rejected")) {
+            for (JsonElement f: res.getAsJsonArray("rejected")) {
+                JsonObject o = f.getAsJsonObject();
+                fail(batch.get(o.get("index").getAsInt()), o.has("error") ? o.get("error").getAsString() : "not delivered");
+                ok--;
+                read++;
+            }
+        }
+        if (res.has("error")) {
+            for (int i = read; i < batch.size(); i++) {
+                fail(batch.get(i), res.get("error").getAsString());
+                ok--;
+            }
+        }
+        return ok;
+    }
+
+    protected byte[] encodeBinary(List<Pending> batch) throws Exception {
+        List<jason.asSemantics.Message> msgs = new ArrayList<>(batch.size());
+        for (Pending p: batch)
+            msgs.add(p.msg);
+        byte[] b = MessageCodec.encode(msgs);
+        bytes.addAndGet(b.length);
+        return b;
+    }
+
+    protected byte[] encodeJson(List<Pending> batch) {
+        List<Message> msgs = new ArrayList<>(batch.size());
+        for (Pending p: batch)
+            msgs.add(new Message(p.msg));
+        byte[] b = gson.toJson(msgs).getBytes(StandardCharsets.UTF_8);
+        bytes.addAndGet(b.length);
+        return b;
+    }
+
+    /**
+     * posts each message to its inbox, delivered messages are removed from the batch
+     * (so that they are not posted again when the request is retried)
+     */
+    protected int postOneByOne(List<Pending> batch) throws Exception {
+        int ok = 0;
+        Iterator<Pending> i = batch.iterator();
+        while (i.hasNext()) {
+            Pending p = i.next();
+            Response r = getClient()
+                    .target(p.inbox)
+                    .request(MediaType.APPLICATION_JSON)
+                    .post(Entity.json(gson.toJson(new Message(p.msg))));
+            r.close();
+            if (r.getStatus() >= 500)
+                throw new Exception("status " + r.getStatus());
+            i.remove();
+            if (r.getStatus() >= 300)
+                fail(p, "status " + r.getStatus());
+            else
+                ok++;
+        }
+        return ok;
+    }
+
+    protected void fail(Pending p, String reason) {
+        failed.incrementAndGet();
+        try {
+            p.onFailure.accept(p.msg, reason);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    protected Client getClient() {
+        return JCMRest.getMessageClient();
+    }
+
+    public Map<String,Object> getMetrics() {
+        int waiting = 0;
+        int binaryNodes = 0;
+        for (Node n: nodes.values())
+            synchronized (n) {
+                waiting += n.queue.size();
+                if (n.binary && n.batchUrl != null)
+                    binaryNodes++;
+            }
+        Map<String,Object> m = new HashMap<>();
+        m.put("queueSize", queueSize);
+        m.put("nodes", nodes.size());
+        m.put("binaryNodes", binaryNodes);
+        m.put("waiting", waiting);
+        m.put("queued", queued.get());
+        m.put("sent", sent.get());
+        m.put("requests", requests.get());
+        m.put("retries", retried.get());
+        m.put("dropped", dropped.get());
+        m.put("failed", failed.get());
+        m.put("batchBytes", bytes.get());
+        return m;
+    }
+}
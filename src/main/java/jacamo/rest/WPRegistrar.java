@@ -0,0 +1,112 @@
+package jacamo.rest;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+
+import jacamo.rest.config.RestAgArch;
+
+/**
+ * Groups the registrations of agents in the WP that happen in a short period of time
+ * (e.g. when the MAS is starting) into batched ZK transactions.
+ *
+ * The registered agents are immediately available in the WP of this JVM,
+ * other nodes see them after the batch is stored in ZK.
+ */
+public class WPRegistrar {
+
+    protected final CuratorFramework zkClient;
+    protected final int              batchSize;
+    protected final long             delay = 10; // ms waiting for more registrations
+
+    protected Map<String, Map<String,String>> pending   = new LinkedHashMap<>();
+    protected boolean                         scheduled = false;
+    protected final Object                    zkLock    = new Object(); // orders ZK changes of flush and deregister
+
+    protected final ScheduledExecutorService executor  = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jcm-wp-registrar");
+        t.setDaemon(true);
+        return t;
+    });
+
+    protected final AtomicLong batches    = new AtomicLong();
+    protected final AtomicLong registered = new AtomicLong();
+
+    public WPRegistrar(CuratorFramework zkClient, int batchSize) {
+        this.zkClient  = zkClient;
+        this.batchSize = batchSize;
+    }
+
+    public void stop() {
+        flush();
+        executor.shutdownNow();
+    }
+
+    public void register(String agName, Map<String,String> md, boolean addInbox) throws Exception {
+        String agUri = RestAgArch.prepareWP(agName, md, addInbox);
+        JCMRest.getWhitePages().put(agName, agUri, md);
+        synchronized (this) {
+            pending.put(agName, md);
+            if (pending.size() >= batchSize) {
+                executor.execute(this::flush);
+            } else if (!scheduled) {
+                scheduled = true;
+                executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /** removes the agent from the pending registrations or from the WP */
+    public void deregister(String agName) throws Exception {
+        synchronized (this) {
+            if (pending.remove(agName) != null) {
+                JCMRest.getWhitePages().remove(agName);
+                return;
+            }
+        }
+        synchronized (zkLock) {
+            RestAgArch.deleteWP(zkClient, agName);
+        }
+    }
+
+    protected void flush() {
+        synchronized (zkLock) {
+            Map<String, Map<String,String>> batch;
+            synchronized (this) {
+                batch     = pending;
+                pending   = new LinkedHashMap<>();
+                scheduled = false;
+            }
+            if (batch.isEmpty())
+                return;
+
+            try {
+                Set<String> ok = RestAgArch.registerWP(zkClient, batch, false, batchSize);
+                batches.incrementAndGet();
+                registered.addAndGet(ok.size());
+                for (String agName: batch.keySet())
+                    if (!ok.contains(agName))
+                        JCMRest.getWhitePages().remove(agName); // registered by someone else, it will be read from ZK
+            } catch (java.lang.InterruptedException e) {
+                // ignore, system is stopping
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("batchSize", batchSize);
+        m.put("batches", batches.get());
+        m.put("registered", registered.get());
+        return m;
+    }
+}
@@ -0,0 +1,274 @@
+package jacamo.rest;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.util.JsonMapper;
+
+/**
+ * In-memory copy of the white pages (the agents registered under /jacamo/agents in ZK).
+ *
+ * The copy is kept up to date by a single Curator tree watch on /jacamo/agents,
+ * so answering GET /agents does not cost ZK round trips. Changes done by this
+ * JVM are also applied directly (write through), so local reads see local writes.
+ */
+public class WhitePages implements TreeCacheListener {
+
+    public enum Consistency {
+        /** reads are answered from memory, the cache follows ZK events */
+        eventual,
+        /** reads go to ZK (as in the former implementation) and refresh the cache */
+        strict
+    }
+
+    /** immutable WP entry: the data of the agent node and of its metadata node */
+    static class Entry {
+        final String              uri;
+        final Map<String,String>  md;
+        final Map<String,String>  view; // what is answered to clients
+
+        Entry(String uri, Map<String,String> md) {
+            this.uri = uri;
+            this.md  = md;
+            Map<String,String> v = md == null ? new HashMap<>() : new HashMap<>(md);
+            if (uri != null && !v.containsKey("uri"))
+                v.put("uri", uri);
+            this.view = Collections.unmodifiableMap(v);
+        }
+    }
+
+    protected final CuratorFramework   zkClient;
+    protected final String             root = JCMRest.JaCaMoZKAgNodeId;
+    protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    protected TreeCache                treeCache = null;
+    protected Consistency              consistency;
+
+    /** true when the initial load is done and the connection with ZK is ok */
+    protected volatile boolean         synced = false;
+
+    protected final AtomicLong         hits   = new AtomicLong();
+    protected final AtomicLong         misses = new AtomicLong();
+
+    protected Gson                     gson = JsonMapper.getGson();
+
+    public WhitePages(CuratorFramework zkClient, Consistency consistency) {
+        this.zkClient    = zkClient;
+        this.consistency = consistency;
+    }
+
+    public void start() throws Exception {
+        treeCache = TreeCache.newBuilder(zkClient, root)
+                .setCacheData(true)
+                .setMaxDepth(2) // agent node and its metadata
+                .build();
+        treeCache.getListenable().addListener(this);
+        treeCache.start();
+    }
+
+    public void stop() {
+        synced = false;
+        if (treeCache != null) {
+            treeCache.close();
+            treeCache = null;
+        }
+        entries.clear();
+    }
+
+    public Consistency getConsistency() {
+        return consistency;
+    }
+    public void setConsistency(Consistency consistency) {
+        this.consistency = consistency;
+    }
+
+    /** whether the reads can be answered from memory */
+    protected boolean useCache() {
+        return synced && consistency == Consistency.eventual;
+    }
+
+    /** all entries of the WP: agent name -> meta data (including its uri) */
+    public Map<String,Map<String,String>> getAll() throws Exception {
+        if (useCache()) {
+            hits.incrementAndGet();
+            Map<String,Map<String,String>> data = new HashMap<>();
+            for (Map.Entry<String, Entry> e: entries.entrySet())
+                data.put(e.getKey(), e.getValue().view);
+            return data;
+        } else {
+            misses.incrementAndGet();
+            return load();
+        }
+    }
+
+    /** names of all agents in the WP */
+    public Collection<String> getNames() throws Exception {
+        if (useCache()) {
+            hits.incrementAndGet();
+            return new HashSet<>(entries.keySet());
+        } else {
+            misses.incrementAndGet();
+            return zkClient.getChildren().forPath(root);
+        }
+    }
+
+    /**
+     * the entry of one agent, null if the agent is not in the WP.
+     *
+     * An agent absent in memory is looked up in ZK, since it may have been
+     * registered by another node and its event was not received yet.
+     */
+    public Map<String,String> get(String agName) throws Exception {
+        if (useCache()) {
+            Entry e = entries.get(agName);
+            if (e != null) {
+                hits.incrementAndGet();
+                return e.view;
+            }
+        }
+        misses.incrementAndGet();
+        Entry e = loadEntry(agName);
+        return e == null ? null : e.view;
+    }
+
+    /** registers locally an entry already stored in ZK (write through) */
+    public void put(String agName, String uri, Map<String,String> md) {
+        entries.put(agName, new Entry(uri, md == null ? null : new HashMap<>(md)));
+    }
+
+    /** removes locally an entry already removed from ZK (write through) */
+    public void remove(String agName) {
+        entries.remove(agName);
+    }
+
+    /** reads the whole WP from ZK, also refreshing the memory copy */
+    protected Map<String,Map<String,String>> load() throws Exception {
+        Map<String,Map<String,String>> data = new HashMap<>();
+        List<String> ags = zkClient.getChildren().forPath(root);
+        for (String ag : ags) {
+            Entry e = loadEntry(ag);
+            if (e != null)
+                data.put(ag, e.view);
+        }
+        entries.keySet().retainAll(ags);
+        return data;
+    }
+
+    protected Entry loadEntry(String agName) throws Exception {
+        String uri;
+        try {
+            uri = new String(zkClient.getData().forPath(root+"/"+agName));
+        } catch (org.apache.zookeeper.KeeperException.NoNodeException e) {
+            entries.remove(agName);
+            return null;
+        }
+
+        // try to load metadata from ZK
+        Map<String,String> md = null;
+        try {
+            md = parseMD(zkClient.getData().forPath(root+"/"+agName+"/"+JCMRest.JaCaMoZKMDNodeId));
+        } catch (Exception e) {
+            // no meta data
+        }
+        Entry e = new Entry(uri, md);
+        entries.put(agName, e);
+        return e;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Map<String,String> parseMD(byte[] data) {
+        if (data == null)
+            return null;
+        return gson.fromJson(new String(data), Map.class);
+    }
+
+    @Override
+    public void childEvent(CuratorFramework client, TreeCacheEvent event) throws Exception {
+        switch (event.getType()) {
+        case NODE_ADDED:
+        case NODE_UPDATED:
+            nodeChanged(event.getData());
+            break;
+        case NODE_REMOVED:
+            nodeRemoved(event.getData());
+            break;
+        case INITIALIZED:
+        case CONNECTION_RECONNECTED:
+            synced = true;
+            break;
+        case CONNECTION_SUSPENDED:
+        case CONNECTION_LOST:
+            synced = false;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** returns [agent] for agent nodes, [agent, child] for their children, null for the root */
+    protected String[] relativePath(String path) {
+        if (path.length() <= root.length()+1)
+            return null;
+        return path.substring(root.length()+1).split("/");
+    }
+
+    protected void nodeChanged(ChildData d) {
+        String[] p = relativePath(d.getPath());
+        if (p == null)
+            return;
+        if (p.length == 1) {
+            String uri = d.getData() == null ? null : new String(d.getData());
+            entries.compute(p[0], (k, old) -> new Entry(uri, old == null ? null : old.md));
+        } else if (p.length == 2 && p[1].equals(JCMRest.JaCaMoZKMDNodeId)) {
+            Map<String,String> md;
+            try {
+                md = parseMD(d.getData());
+            } catch (Exception e) {
+                md = null; // invalid meta data
+            }
+            Map<String,String> fmd = md;
+            entries.compute(p[0], (k, old) -> new Entry(old == null ? null : old.uri, fmd));
+        }
+    }
+
+    protected void nodeRemoved(ChildData d) {
+        String[] p = relativePath(d.getPath());
+        if (p == null)
+            return;
+        if (p.length == 1) {
+            entries.remove(p[0]);
+        } else if (p.length == 2 && p[1].equals(JCMRest.JaCaMoZKMDNodeId)) {
+            entries.computeIfPresent(p[0], (k, old) -> new Entry(old.uri, null));
+        }
+    }
+
+    public double getHitRate() {
+        long h = hits.get();
+        long t = h + misses.get();
+        return t == 0 ? 0 : (double)h / t;
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("consistency", consistency.toString());
+        m.put("synced", synced);
+        m.put("size", entries.size());
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("hitRate", getHitRate());
+        return m;
+    }
+}
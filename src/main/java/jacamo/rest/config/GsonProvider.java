@@ -0,0 +1,102 @@
+package jacamo.rest.config;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonWriter;
+
+import jacamo.rest.util.JsonMapper;
+
+/**
+ * The JSON provider of the application: reads and writes entities
+ * (Message, PostArtifact, Map, ...) with the shared Gson of JsonMapper.
+ *
+ * Strings, streams and streaming outputs are left to the default providers,
+ * since they are already serialised.
+ */
+@Provider
+@Produces({ MediaType.APPLICATION_JSON, "text/json", "application/*+json" })
+@Consumes({ MediaType.APPLICATION_JSON, "text/json", "application/*+json" })
+public class GsonProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    protected final Gson gson = JsonMapper.getGson();
+
+    protected boolean isJson(Class<?> type) {
+        return type != String.class
+            && type != byte[].class
+            && type != File.class
+            && !InputStream.class.isAssignableFrom(type)
+            && !Reader.class.isAssignableFrom(type)
+            && !StreamingOutput.class.isAssignableFrom(type)
+            && !ChunkedOutput.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isJson(type);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException, WebApplicationException {
+        try {
+            return gson.fromJson(new InputStreamReader(entityStream, StandardCharsets.UTF_8), genericType);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw e;
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isJson(type);
+    }
+
+    @Override
+    public long getSize(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(entityStream, StandardCharsets.UTF_8), 8192);
+        try {
+            gson.toJson(t, genericType == null ? type : genericType, new JsonWriter(w));
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw e;
+        }
+        w.flush(); // the stream is closed by the container
+    }
+}
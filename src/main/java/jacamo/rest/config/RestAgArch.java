@@ -1,24 +1,34 @@
 package jacamo.rest.config;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
-import javax.ws.rs.core.MediaType;
+import java.util.Set;
 
 import org.apache.curator.framework.CuratorFramework;
-import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.framework.api.transaction.CuratorOp;
 import org.apache.curator.x.async.AsyncCuratorFramework;
+import org.apache.zookeeper.KeeperException;
 
-import com.google.gson.Gson;
 
+import jacamo.rest.DFIndex;
+import jacamo.rest.DFSubscriptions;
 import jacamo.rest.JCMRest;
+import jacamo.rest.WPRegistrar;
+import jacamo.rest.mediation.VersionedBB;
+import jacamo.rest.util.JsonMapper;
 import jason.ReceiverNotFoundException;
 import jason.architecture.AgArch;
 import jason.asSemantics.Message;
+import jason.asSyntax.ASSyntax;
+import jason.asSyntax.Literal;
+import jason.asSyntax.Trigger;
+import jason.asSyntax.Trigger.TEOperator;
+import jason.asSyntax.Trigger.TEType;
+import jason.bb.BeliefBase;
+import jason.runtime.RuntimeServicesFactory;
 
 public class RestAgArch extends AgArch {
 
@@ -27,58 +37,137 @@ public class RestAgArch extends AgArch {
     CuratorFramework      zkClient = null;
     AsyncCuratorFramework zkAsync = null;
 
-    Client                restClient = null;
-
     @Override
     public void init() throws Exception {
         //System.out.println("my ag arch init "+getAgName());
-        restClient = ClientBuilder.newClient();
+        // counts the changes of the beliefs (ETag of GET /agents/{name}), the belief base
+        // is replaced here since the reasoning cycle of the agent has not started yet
+        if (getTS() != null && !(getTS().getAg().getBB() instanceof VersionedBB))
+            getTS().getAg().setBB(new VersionedBB(getTS().getAg().getBB()));
 
         if (JCMRest.getZKHost() != null) {
-            zkClient = CuratorFrameworkFactory.newClient(JCMRest.getZKHost(), new ExponentialBackoffRetry(1000, 3));
-            zkClient.start();
+            // ZK clients are shared by all agents (no session per agent)
+            zkClient = JCMRest.getZKClient(getAgName());
 
-            // register the agent in ZK
+            // register the agent in ZK (registrations are grouped in batched transactions)
             Map<String,String> md = new HashMap<>();
             md.put("type", "JaCaMoAgent");
-            try {
-                registerWP(zkClient, getAgName(), md, true);            
-            } catch (java.lang.InterruptedException e) {
-                // ignore, system is stopping
-            }
+            JCMRest.getWPRegistrar().register(getAgName(), md, true);
         }
     }
 
+    /**
+     * Registers an agent in the WP: the agent node and its meta data are created
+     * in a single ZK transaction.
+     *
+     * @return false if the agent is already registered
+     */
     public static boolean registerWP(CuratorFramework zkClient, String agName, Map<String,String> md, boolean addInbox) throws Exception {
-        // register the agent in ZK
-        if (zkClient.checkExists().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+agName) != null) {
+        String agUri = prepareWP(agName, md, addInbox);
+        try {
+            zkClient.transaction().forOperations(registerWPOps(zkClient, agName, agUri, md));
+        } catch (KeeperException.NodeExistsException e) {
             System.err.println("Agent "+agName+" is already registered in zookeeper!");
             return false;
-        } else {
-            String agAddr = JCMRest.JaCaMoZKAgNodeId+"/"+agName;
-            String agUri  = md.getOrDefault("uri", JCMRest.getRestHost()+"agents/"+agName);
-            zkClient.create()//.withMode(CreateMode.EPHEMERAL)
-                .forPath(agAddr, agUri.getBytes());
-            
-            // store meta-data
-            try {
-                if (addInbox)
-                    md.put("inbox", agUri+"/inbox");
+        }
+        if (JCMRest.getZKHost() != null)
+            JCMRest.getWhitePages().put(agName, agUri, md);
+        return true;
+    }
 
-                zkClient.create()//.withMode(CreateMode.EPHEMERAL)
-                    .forPath(agAddr+"/"+JCMRest.JaCaMoZKMDNodeId, new Gson().toJson(md).getBytes());
-            } catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Registers several agents in the WP, using one ZK transaction for each batch of agents.
+     *
+     * @param agents agent name -> meta data
+     * @return the names of the registered agents (those already registered are not included)
+     */
+    public static Set<String> registerWP(CuratorFramework zkClient, Map<String,Map<String,String>> agents, boolean addInbox, int batchSize) throws Exception {
+        Set<String> registered = new HashSet<>();
+        List<String> batch = new ArrayList<>();
+        for (String agName: agents.keySet()) {
+            batch.add(agName);
+            if (batch.size() >= batchSize) {
+                registerWPBatch(zkClient, batch, agents, addInbox, registered);
+                batch.clear();
             }
-            return true;
         }
+        if (!batch.isEmpty())
+            registerWPBatch(zkClient, batch, agents, addInbox, registered);
+        return registered;
+    }
+
+    protected static void registerWPBatch(CuratorFramework zkClient, List<String> batch, Map<String,Map<String,String>> agents, boolean addInbox, Set<String> registered) throws Exception {
+        Map<String,String> uris = new HashMap<>();
+        List<CuratorOp> ops = new ArrayList<>();
+        for (String agName: batch) {
+            Map<String,String> md = agents.get(agName);
+            String agUri = prepareWP(agName, md, addInbox);
+            uris.put(agName, agUri);
+            ops.addAll(registerWPOps(zkClient, agName, agUri, md));
+        }
+        try {
+            zkClient.transaction().forOperations(ops);
+        } catch (KeeperException.NodeExistsException e) {
+            // some agent is already registered and the whole transaction failed: register them one by one
+            for (String agName: batch)
+                if (registerWP(zkClient, agName, agents.get(agName), false)) // inbox is already in md
+                    registered.add(agName);
+            return;
+        }
+        registered.addAll(batch);
+        if (JCMRest.getZKHost() != null)
+            for (String agName: batch)
+                JCMRest.getWhitePages().put(agName, uris.get(agName), agents.get(agName));
+    }
+
+    /**
+     * Computes the URI of an agent (if not given in the meta data) and, if required, adds its inbox in the meta data
+     *
+     * @return the URI of the agent
+     */
+    public static String prepareWP(String agName, Map<String,String> md, boolean addInbox) {
+        String agUri = md.getOrDefault("uri", JCMRest.getRestHost()+"agents/"+agName);
+        if (addInbox)
+            md.put("inbox", agUri+"/inbox");
+        return agUri;
+    }
+
+    protected static List<CuratorOp> registerWPOps(CuratorFramework zkClient, String agName, String agUri, Map<String,String> md) throws Exception {
+        String agAddr = JCMRest.JaCaMoZKAgNodeId+"/"+agName;
+        List<CuratorOp> ops = new ArrayList<>(2);
+        ops.add(zkClient.transactionOp().create()//.withMode(CreateMode.EPHEMERAL)
+                .forPath(agAddr, agUri.getBytes()));
+        // meta-data
+        ops.add(zkClient.transactionOp().create()//.withMode(CreateMode.EPHEMERAL)
+                .forPath(agAddr+"/"+JCMRest.JaCaMoZKMDNodeId, JsonMapper.getGson().toJson(md).getBytes()));
+        return ops;
     }
     
+    /**
+     * Removes an agent from the WP: the agent node and its meta data are deleted
+     * in a single ZK transaction.
+     */
     public static void deleteWP(CuratorFramework zkClient, String agName) {
+        String agAddr = JCMRest.JaCaMoZKAgNodeId+"/"+agName;
         try {
-            zkClient.delete().deletingChildrenIfNeeded()
-                //.inBackground() // causes problems in tests
-                .forPath(JCMRest.JaCaMoZKAgNodeId+"/"+agName);
+            try {
+                zkClient.transaction().forOperations(
+                        zkClient.transactionOp().delete().forPath(agAddr+"/"+JCMRest.JaCaMoZKMDNodeId),
+                        zkClient.transactionOp().delete().forPath(agAddr));
+            } catch (KeeperException.NoNodeException | KeeperException.NotEmptyException e) {
+                // no meta data or other children
+                zkClient.delete().deletingChildrenIfNeeded()
+                    //.inBackground() // causes problems in tests
+                    .forPath(agAddr);
+            }
+        } catch (KeeperException.NoNodeException e) {
+            // not registered
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        try {
+            if (JCMRest.getZKHost() != null)
+                JCMRest.getWhitePages().remove(agName);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -95,19 +184,43 @@ public class RestAgArch extends AgArch {
     
     @Override
     public void stop() {
+        // the DF index and subscriptions and the WP registrar are not created during the shutdown
+        // (the platform may be already stopped)
+        DFSubscriptions subs = JCMRest.getDFSubscriptionsIfStarted();
+        if (subs != null)
+            subs.unsubscribeAll(getAgName());
         if (zkClient != null) {
-            deleteWP(zkClient, getAgName());
-            // no need to delete DF, they are ephemeral nodes
-            zkClient.close();
-            zkClient = null;
-        }
-        if (restClient != null) {
-            restClient.close();
-            restClient = null;
+            WPRegistrar wp = JCMRest.getWPRegistrarIfStarted();
+            if (wp != null) {
+                try {
+                    wp.deregister(getAgName());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            // DF nodes are ephemeral, but the ZK session is shared with other agents
+            // and so they have to be removed here
+            DFIndex df = JCMRest.getDFIndexIfStarted();
+            if (df != null) {
+                try {
+                    for (String s: df.getServices(getAgName()))
+                        RuntimeServicesFactory.get().dfDeRegister(getAgName(), s, null);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            zkClient = null; // the shared client is closed by the platform
+            zkAsync  = null;
         }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Sends messages to agents not found in this node: the inbox of the receiver comes
+     * from the white pages (kept in memory and updated by a ZK watch on /jacamo/agents,
+     * so no ZK read is done for each message) and the message is queued in the
+     * OutboundDelivery of the node, the agent does not wait for the HTTP request.
+     * Messages not delivered produce the event +delivery_failed(Receiver, MsgId, Reason).
+     */
     @Override
     public void sendMsg(Message m) throws Exception {
         try {
@@ -115,40 +228,13 @@ public class RestAgArch extends AgArch {
             return;
         } catch (ReceiverNotFoundException e) {
             try {
-                String adr = null;
-
-                if (m.getReceiver().startsWith("http")) {
-                    adr = m.getReceiver();
-                } else if (zkClient != null) {
-                    try {
-                        // try ZK inbox meta data
-                        byte[] lmd = zkClient.getData().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+m.getReceiver()+"/"+JCMRest.JaCaMoZKMDNodeId);
-                        Map<String,String> md = new Gson().fromJson(new String(lmd), Map.class);
-                        adr = md.get("inbox");
-                    } catch (Exception e1) {
-                        e1.printStackTrace();
-                    }
-
-                    if (adr == null) {
-                        // try ZK agent data
-                        byte[] badr = zkClient.getData().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+m.getReceiver());
-                        if (badr != null)
-                            adr = new String(badr);
-                    }
-                }
+                String adr = resolveInbox(m.getReceiver());
 
                 // try to send the message by REST API
                 if (adr != null) {
-                    // do POST
-                    if (adr.startsWith("http")) {
-                        restClient
-                                  .target(adr)
-                                  .request(MediaType.APPLICATION_XML)
-                                  .accept(MediaType.TEXT_PLAIN)
-                                  .post(
-                                        //Entity.xml( new jacamo.rest.Message(m)), String.class);
-                                        Entity.json( new Gson().toJson(new jacamo.rest.util.Message(m))));
-                    }
+                    // POST done by the delivery threads
+                    if (adr.startsWith("http"))
+                        JCMRest.getOutboundDelivery().send(m, adr, this::deliveryFailed);
                 } else {
                     throw e;
                 }
@@ -158,4 +244,29 @@ public class RestAgArch extends AgArch {
             }
         }
     }
+
+    /** produces the event +delivery_failed(Receiver, MsgId, Reason)[source(self)] for the agent */
+    protected void deliveryFailed(Message m, String reason) {
+        if (getTS() == null)
+            return; // the agent has stopped
+        Literal l = ASSyntax.createLiteral("delivery_failed",
+                ASSyntax.createString(m.getReceiver()),
+                ASSyntax.createString(String.valueOf(m.getMsgId())),
+                ASSyntax.createString(reason));
+        l.addSource(BeliefBase.ASelf);
+        getTS().getC().addExternalEv(new Trigger(TEOperator.add, TEType.belief, l));
+        wakeUpSense();
+    }
+
+    /** the address of the inbox of the receiver (its URI if the meta data has no inbox), null if unknown */
+    protected String resolveInbox(String receiver) throws Exception {
+        if (receiver.startsWith("http"))
+            return receiver;
+        if (zkClient == null)
+            return null;
+        Map<String,String> md = JCMRest.getWhitePages().get(receiver);
+        if (md == null)
+            return null;
+        return md.getOrDefault("inbox", md.get("uri"));
+    }
 }
@@ -29,10 +29,16 @@ public class RestAppConfig extends ResourceConfig {
         // gzip compression
         registerClasses(EncodingFilter.class, GZipEncoder.class, DeflateEncoder.class);
         
+        // JSON with the shared Gson (instead of the auto discovered Jackson feature)
+        registerClasses(GsonProvider.class);
+        
         addProperties(new HashMap<String,Object>() {
             private static final long serialVersionUID = 1L;
 
-            { put("jersey.config.server.provider.classnames", "org.glassfish.jersey.media.multipart.MultiPartFeature"); }
+            { 
+                put("jersey.config.server.provider.classnames", "org.glassfish.jersey.media.multipart.MultiPartFeature"); 
+                put("jersey.config.jsonFeature", GsonProvider.class.getSimpleName());
+            }
         } );        
     }
 }
@@ -0,0 +1,144 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Agent information: namespaces, roles, missions, workspaces (with the artifacts
+ * the agent is focusing on) and beliefs.
+ *
+ * Sample: {"agent":"marcos","namespaces":["default"],"roles":[{"group":"g1","role":"r1"}],
+ * "missions":[{"scheme":"s1","mission":"m1","responsibles":["g1"]}],
+ * "workspaces":[{"workspace":"testwks","artifacts":[{"artifact":"a","type":"tools.Counter"}]}],
+ * "beliefs":["vl(10)[source(self)]"]}
+ */
+public class AgentDetails implements JsonWritable {
+
+    public static class Role implements JsonWritable {
+        private final String group;
+        private final String role;
+
+        public Role(String group, String role) {
+            this.group = group;
+            this.role  = role;
+        }
+
+        public String getGroup() { return group; }
+        public String getRole()  { return role; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("group").value(group);
+            out.name("role").value(role);
+            out.endObject();
+        }
+    }
+
+    public static class Mission implements JsonWritable {
+        private final String       scheme;
+        private final String       mission;
+        private final List<String> responsibles;
+
+        public Mission(String scheme, String mission, List<String> responsibles) {
+            this.scheme       = scheme;
+            this.mission      = mission;
+            this.responsibles = Collections.unmodifiableList(responsibles);
+        }
+
+        public String       getScheme()       { return scheme; }
+        public String       getMission()      { return mission; }
+        public List<String> getResponsibles() { return responsibles; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("scheme").value(scheme);
+            out.name("mission").value(mission);
+            JsonViews.writeStrings(out, "responsibles", responsibles);
+            out.endObject();
+        }
+    }
+
+    /** an artifact observed by the agent */
+    public static class Artifact implements JsonWritable {
+        private final String artifact;
+        private final String type;
+
+        public Artifact(String artifact, String type) {
+            this.artifact = artifact;
+            this.type     = type;
+        }
+
+        public String getArtifact() { return artifact; }
+        public String getType()     { return type; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("artifact").value(artifact);
+            out.name("type").value(type);
+            out.endObject();
+        }
+    }
+
+    /** a workspace joined by the agent and the artifacts it observes there */
+    public static class Workspace implements JsonWritable {
+        private final String         workspace;
+        private final List<Artifact> artifacts;
+
+        public Workspace(String workspace, List<Artifact> artifacts) {
+            this.workspace = workspace;
+            this.artifacts = Collections.unmodifiableList(artifacts);
+        }
+
+        public String         getWorkspace() { return workspace; }
+        public List<Artifact> getArtifacts() { return artifacts; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("workspace").value(workspace);
+            JsonViews.writeAll(out, "artifacts", artifacts);
+            out.endObject();
+        }
+    }
+
+    private final String          agent;
+    private final List<String>    namespaces;
+    private final List<Role>      roles;
+    private final List<Mission>   missions;
+    private final List<Workspace> workspaces;
+    private final List<String>    beliefs;
+
+    public AgentDetails(String agent, List<String> namespaces, List<Role> roles, List<Mission> missions, List<Workspace> workspaces, List<String> beliefs) {
+        this.agent      = agent;
+        this.namespaces = Collections.unmodifiableList(namespaces);
+        this.roles      = Collections.unmodifiableList(roles);
+        this.missions   = Collections.unmodifiableList(missions);
+        this.workspaces = Collections.unmodifiableList(workspaces);
+        this.beliefs    = Collections.unmodifiableList(beliefs);
+    }
+
+    public String          getAgent()      { return agent; }
+    public List<String>    getNamespaces() { return namespaces; }
+    public List<Role>      getRoles()      { return roles; }
+    public List<Mission>   getMissions()   { return missions; }
+    public List<Workspace> getWorkspaces() { return workspaces; }
+    public List<String>    getBeliefs()    { return beliefs; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("agent").value(agent);
+        JsonViews.writeStrings(out, "namespaces", namespaces);
+        JsonViews.writeAll(out, "roles", roles);
+        JsonViews.writeAll(out, "missions", missions);
+        JsonViews.writeAll(out, "workspaces", workspaces);
+        JsonViews.writeStrings(out, "beliefs", beliefs);
+        out.endObject();
+    }
+}
@@ -0,0 +1,75 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.gson.stream.JsonWriter;
+
+import jacamo.rest.util.JsonMapper;
+
+/**
+ * An artifact with its properties, operations, observers and linked artifacts.
+ *
+ * Sample: {"artifact":"a","type":"tools.Counter","properties":[{"count":10}],
+ * "operations":["observeProperty","inc"],"observers":["marcos"],"linkedArtifacts":["b"]}
+ */
+public class ArtifactView implements JsonWritable {
+
+    /** a value of an observable property, written as {name: value} */
+    public static class Property {
+        private final String name;
+        private final Object value;
+
+        public Property(String name, Object value) {
+            this.name  = name;
+            this.value = value;
+        }
+
+        public String getName()  { return name; }
+        public Object getValue() { return value; }
+    }
+
+    private final String         artifact;
+    private final String         type;
+    private final List<Property> properties;
+    private final Set<String>    operations;
+    private final Set<String>    observers;
+    private final Set<String>    linkedArtifacts;
+
+    public ArtifactView(String artifact, String type, List<Property> properties, Set<String> operations, Set<String> observers, Set<String> linkedArtifacts) {
+        this.artifact        = artifact;
+        this.type            = type;
+        this.properties      = Collections.unmodifiableList(properties);
+        this.operations      = Collections.unmodifiableSet(operations);
+        this.observers       = Collections.unmodifiableSet(observers);
+        this.linkedArtifacts = Collections.unmodifiableSet(linkedArtifacts);
+    }
+
+    public String         getArtifact()        { return artifact; }
+    public String         getType()            { return type; }
+    public List<Property> getProperties()      { return properties; }
+    public Set<String>    getOperations()      { return operations; }
+    public Set<String>    getObservers()       { return observers; }
+    public Set<String>    getLinkedArtifacts() { return linkedArtifacts; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("artifact").value(artifact);
+        out.name("type").value(type);
+        out.name("properties").beginArray();
+        for (Property p: properties) {
+            out.beginObject();
+            out.name(p.getName());
+            JsonMapper.writeValue(out, p.getValue());
+            out.endObject();
+        }
+        out.endArray();
+        JsonViews.writeStrings(out, "operations", operations);
+        JsonViews.writeStrings(out, "observers", observers);
+        JsonViews.writeStrings(out, "linkedArtifacts", linkedArtifacts);
+        out.endObject();
+    }
+}
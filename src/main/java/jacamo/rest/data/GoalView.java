@@ -0,0 +1,48 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A goal of a scheme and its state.
+ *
+ * Sample: {"goal":"g2","parent":"g1","operation":"sequence","isSatisfied":false,"enabled":true}
+ */
+public class GoalView implements JsonWritable {
+
+    private final String  goal;
+    private final String  parent;
+    private final String  operation;
+    private final boolean satisfied;
+    private final boolean enabled;
+
+    /**
+     * @param parent    the parent goal ("" for the root)
+     * @param operation the operator of the plan of the goal ("" if the goal has no plan)
+     */
+    public GoalView(String goal, String parent, String operation, boolean satisfied, boolean enabled) {
+        this.goal      = goal;
+        this.parent    = parent;
+        this.operation = operation;
+        this.satisfied = satisfied;
+        this.enabled   = enabled;
+    }
+
+    public String  getGoal()      { return goal; }
+    public String  getParent()    { return parent; }
+    public String  getOperation() { return operation; }
+    public boolean isSatisfied()  { return satisfied; }
+    public boolean isEnabled()    { return enabled; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("goal").value(goal);
+        out.name("parent").value(parent);
+        out.name("operation").value(operation);
+        out.name("isSatisfied").value(satisfied);
+        out.name("enabled").value(enabled);
+        out.endObject();
+    }
+}
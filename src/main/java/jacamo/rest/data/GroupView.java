@@ -0,0 +1,170 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A group of an organisation: its specification (roles, links, compatibilities)
+ * and its state (sub-groups, players, schemes it is responsible for).
+ */
+public class GroupView implements JsonWritable {
+
+    public static class Role implements JsonWritable {
+        private final String       role;
+        private final List<String> superRoles;
+        private final String       cardinality;
+
+        public Role(String role, List<String> superRoles, String cardinality) {
+            this.role        = role;
+            this.superRoles  = Collections.unmodifiableList(superRoles);
+            this.cardinality = cardinality;
+        }
+
+        public String       getRole()        { return role; }
+        public List<String> getSuperRoles()  { return superRoles; }
+        public String       getCardinality() { return cardinality; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("role").value(role);
+            JsonViews.writeStrings(out, "superRoles", superRoles);
+            out.name("cardinality").value(cardinality);
+            out.endObject();
+        }
+    }
+
+    /** a link or a compatibility between roles (links have a type) */
+    public static class RoleRel implements JsonWritable {
+        private final String  type;
+        private final boolean biDir;
+        private final String  scope;
+        private final String  source;
+        private final String  target;
+
+        /** @param type type of the link (null for compatibilities) */
+        public RoleRel(String type, boolean biDir, String scope, String source, String target) {
+            this.type   = type;
+            this.biDir  = biDir;
+            this.scope  = scope;
+            this.source = source;
+            this.target = target;
+        }
+
+        public String  getType()   { return type; }
+        public boolean isBiDir()   { return biDir; }
+        public String  getScope()  { return scope; }
+        public String  getSource() { return source; }
+        public String  getTarget() { return target; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            if (type != null)
+                out.name("type").value(type);
+            out.name("isBiDir").value(biDir);
+            out.name("scope").value(scope);
+            out.name("source").value(source);
+            out.name("target").value(target);
+            out.endObject();
+        }
+    }
+
+    public static class Player implements JsonWritable {
+        private final String agent;
+        private final String role;
+
+        public Player(String agent, String role) {
+            this.agent = agent;
+            this.role  = role;
+        }
+
+        public String getAgent() { return agent; }
+        public String getRole()  { return role; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("agent").value(agent);
+            out.name("role").value(role);
+            out.endObject();
+        }
+    }
+
+    /** a scheme the group is responsible for */
+    public static class Responsibility implements JsonWritable {
+        private final String  scheme;
+        private final boolean wellFormed;
+
+        public Responsibility(String scheme, boolean wellFormed) {
+            this.scheme     = scheme;
+            this.wellFormed = wellFormed;
+        }
+
+        public String  getScheme()    { return scheme; }
+        public boolean isWellFormed() { return wellFormed; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("scheme").value(scheme);
+            out.name("isWellFormed").value(wellFormed);
+            out.endObject();
+        }
+    }
+
+    private final String               id;
+    private final String               group;
+    private final boolean              wellFormed;
+    private final List<Role>           roles;
+    private final List<String>         subGroups;
+    private final List<RoleRel>        links;
+    private final List<RoleRel>        compatibilities;
+    private final List<Player>         players;
+    private final List<Responsibility> responsibleFor;
+
+    /**
+     * @param id    the identification of the group (the name of its board)
+     * @param group the type of the group (as in the specification)
+     */
+    public GroupView(String id, String group, boolean wellFormed, List<Role> roles, List<String> subGroups,
+            List<RoleRel> links, List<RoleRel> compatibilities, List<Player> players, List<Responsibility> responsibleFor) {
+        this.id              = id;
+        this.group           = group;
+        this.wellFormed      = wellFormed;
+        this.roles           = Collections.unmodifiableList(roles);
+        this.subGroups       = Collections.unmodifiableList(subGroups);
+        this.links           = Collections.unmodifiableList(links);
+        this.compatibilities = Collections.unmodifiableList(compatibilities);
+        this.players         = Collections.unmodifiableList(players);
+        this.responsibleFor  = Collections.unmodifiableList(responsibleFor);
+    }
+
+    public String               getId()              { return id; }
+    public String               getGroup()           { return group; }
+    public boolean              isWellFormed()       { return wellFormed; }
+    public List<Role>           getRoles()           { return roles; }
+    public List<String>         getSubGroups()       { return subGroups; }
+    public List<RoleRel>        getLinks()           { return links; }
+    public List<RoleRel>        getCompatibilities() { return compatibilities; }
+    public List<Player>         getPlayers()         { return players; }
+    public List<Responsibility> getResponsibleFor()  { return responsibleFor; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("group").value(group);
+        out.name("isWellFormed").value(wellFormed);
+        JsonViews.writeAll(out, "roles", roles);
+        JsonViews.writeStrings(out, "subGroups", subGroups);
+        JsonViews.writeAll(out, "links", links);
+        JsonViews.writeAll(out, "compatibilities", compatibilities);
+        JsonViews.writeAll(out, "players", players);
+        JsonViews.writeAll(out, "responsibleFor", responsibleFor);
+        out.endObject();
+    }
+}
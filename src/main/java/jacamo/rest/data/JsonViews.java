@@ -0,0 +1,24 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.google.gson.stream.JsonWriter;
+
+/** helpers used by the writeJson of the response objects */
+class JsonViews {
+
+    static void writeStrings(JsonWriter out, String name, Collection<String> values) throws IOException {
+        out.name(name).beginArray();
+        for (String s: values)
+            out.value(s);
+        out.endArray();
+    }
+
+    static void writeAll(JsonWriter out, String name, Collection<? extends JsonWritable> values) throws IOException {
+        out.name(name).beginArray();
+        for (JsonWritable v: values)
+            v.writeJson(out);
+        out.endArray();
+    }
+}
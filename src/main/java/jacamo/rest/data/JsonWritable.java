@@ -0,0 +1,15 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Response objects that write their own JSON in one pass (no reflection nor intermediate maps).
+ *
+ * The shared Gson (see JsonMapper) uses writeJson to serialise them.
+ */
+public interface JsonWritable {
+
+    void writeJson(JsonWriter out) throws IOException;
+}
@@ -0,0 +1,85 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+import jacamo.rest.util.JsonMapper;
+
+/**
+ * State of an operation executed in an artifact by the API.
+ *
+ * Sample: {"id":"op-12","workspace":"testwks","artifact":"a","operation":"inc","state":"succeeded",
+ *          "outputs":[],"started":1600000000000,"finished":1600000000003}
+ */
+public class OperationView implements JsonWritable {
+
+    public static final String RUNNING   = "running";
+    public static final String SUCCEEDED = "succeeded";
+    public static final String FAILED    = "failed";
+
+    private final String       id;
+    private final String       workspace;
+    private final String       artifact;
+    private final String       operation;
+    private final String       state;
+    private final List<Object> outputs;
+    private final String       error;
+    private final long         started;
+    private final long         finished;
+
+    /**
+     * @param outputs  values of the output parameters (null while running or if failed)
+     * @param error    reason of the failure (null if not failed)
+     * @param finished time the operation finished (0 while running)
+     */
+    public OperationView(String id, String workspace, String artifact, String operation, String state,
+            List<Object> outputs, String error, long started, long finished) {
+        this.id        = id;
+        this.workspace = workspace;
+        this.artifact  = artifact;
+        this.operation = operation;
+        this.state     = state;
+        this.outputs   = outputs;
+        this.error     = error;
+        this.started   = started;
+        this.finished  = finished;
+    }
+
+    public String       getId()        { return id; }
+    public String       getWorkspace() { return workspace; }
+    public String       getArtifact()  { return artifact; }
+    public String       getOperation() { return operation; }
+    public String       getState()     { return state; }
+    public List<Object> getOutputs()   { return outputs; }
+    public String       getError()     { return error; }
+    public long         getStarted()   { return started; }
+    public long         getFinished()  { return finished; }
+
+    public boolean isDone() {
+        return !RUNNING.equals(state);
+    }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("workspace").value(workspace);
+        out.name("artifact").value(artifact);
+        out.name("operation").value(operation);
+        out.name("state").value(state);
+        if (outputs != null) {
+            out.name("outputs").beginArray();
+            for (Object v: outputs)
+                JsonMapper.writeValue(out, v);
+            out.endArray();
+        }
+        if (error != null)
+            out.name("error").value(error);
+        out.name("started").value(started);
+        if (finished > 0)
+            out.name("finished").value(finished);
+        out.endObject();
+    }
+}
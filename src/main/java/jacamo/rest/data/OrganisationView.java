@@ -0,0 +1,69 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * An organisation: its groups, schemes and norms.
+ */
+public class OrganisationView implements JsonWritable {
+
+    public static class Norm implements JsonWritable {
+        private final String norm;
+        private final String type;
+        private final String role;
+        private final String mission;
+
+        public Norm(String norm, String type, String role, String mission) {
+            this.norm    = norm;
+            this.type    = type;
+            this.role    = role;
+            this.mission = mission;
+        }
+
+        public String getNorm()    { return norm; }
+        public String getType()    { return type; }
+        public String getRole()    { return role; }
+        public String getMission() { return mission; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("norm").value(norm);
+            out.name("type").value(type);
+            out.name("role").value(role);
+            out.name("mission").value(mission);
+            out.endObject();
+        }
+    }
+
+    private final String           organisation;
+    private final List<GroupView>  groups;
+    private final List<SchemeView> schemes;
+    private final List<Norm>       norms;
+
+    public OrganisationView(String organisation, List<GroupView> groups, List<SchemeView> schemes, List<Norm> norms) {
+        this.organisation = organisation;
+        this.groups       = Collections.unmodifiableList(groups);
+        this.schemes      = Collections.unmodifiableList(schemes);
+        this.norms        = Collections.unmodifiableList(norms);
+    }
+
+    public String           getOrganisation() { return organisation; }
+    public List<GroupView>  getGroups()       { return groups; }
+    public List<SchemeView> getSchemes()      { return schemes; }
+    public List<Norm>       getNorms()        { return norms; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("organisation").value(organisation);
+        JsonViews.writeAll(out, "groups", groups);
+        JsonViews.writeAll(out, "schemes", schemes);
+        JsonViews.writeAll(out, "norms", norms);
+        out.endObject();
+    }
+}
@@ -0,0 +1,91 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A scheme of an organisation: its goals, missions and players.
+ */
+public class SchemeView implements JsonWritable {
+
+    public static class Mission implements JsonWritable {
+        private final String       mission;
+        private final List<String> missionGoals;
+        private final String       cardinality;
+
+        /** @param cardinality "" for the default cardinality */
+        public Mission(String mission, List<String> missionGoals, String cardinality) {
+            this.mission      = mission;
+            this.missionGoals = Collections.unmodifiableList(missionGoals);
+            this.cardinality  = cardinality;
+        }
+
+        public String       getMission()      { return mission; }
+        public List<String> getMissionGoals() { return missionGoals; }
+        public String       getCardinality()  { return cardinality; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("mission").value(mission);
+            JsonViews.writeStrings(out, "missionGoals", missionGoals);
+            out.name("cardinality").value(cardinality);
+            out.endObject();
+        }
+    }
+
+    public static class Player implements JsonWritable {
+        private final String agent;
+        private final String mission;
+
+        public Player(String agent, String mission) {
+            this.agent   = agent;
+            this.mission = mission;
+        }
+
+        public String getAgent()   { return agent; }
+        public String getMission() { return mission; }
+
+        @Override
+        public void writeJson(JsonWriter out) throws IOException {
+            out.beginObject();
+            out.name("agent").value(agent);
+            out.name("mission").value(mission);
+            out.endObject();
+        }
+    }
+
+    private final String         scheme;
+    private final boolean        wellFormed;
+    private final List<GoalView> goals;
+    private final List<Mission>  missions;
+    private final List<Player>   players;
+
+    public SchemeView(String scheme, boolean wellFormed, List<GoalView> goals, List<Mission> missions, List<Player> players) {
+        this.scheme     = scheme;
+        this.wellFormed = wellFormed;
+        this.goals      = Collections.unmodifiableList(goals);
+        this.missions   = Collections.unmodifiableList(missions);
+        this.players    = Collections.unmodifiableList(players);
+    }
+
+    public String         getScheme()   { return scheme; }
+    public boolean        isWellFormed() { return wellFormed; }
+    public List<GoalView> getGoals()    { return goals; }
+    public List<Mission>  getMissions() { return missions; }
+    public List<Player>   getPlayers()  { return players; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("scheme").value(scheme);
+        out.name("isWellFormed").value(wellFormed);
+        JsonViews.writeAll(out, "goals", goals);
+        JsonViews.writeAll(out, "missions", missions);
+        JsonViews.writeAll(out, "players", players);
+        out.endObject();
+    }
+}
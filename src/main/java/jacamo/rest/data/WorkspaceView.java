@@ -0,0 +1,39 @@
+package jacamo.rest.data;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A workspace and its artifacts (by name).
+ *
+ * Sample: {"workspace":"testwks","artifacts":{"a":{"artifact":"a",...},"b":{"artifact":"b",...}}}
+ */
+public class WorkspaceView implements JsonWritable {
+
+    private final String                    workspace;
+    private final Map<String, ArtifactView> artifacts;
+
+    public WorkspaceView(String workspace, Map<String, ArtifactView> artifacts) {
+        this.workspace = workspace;
+        this.artifacts = Collections.unmodifiableMap(artifacts);
+    }
+
+    public String                    getWorkspace() { return workspace; }
+    public Map<String, ArtifactView> getArtifacts() { return artifacts; }
+
+    @Override
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        out.name("workspace").value(workspace);
+        out.name("artifacts").beginObject();
+        for (Map.Entry<String, ArtifactView> a: artifacts.entrySet()) {
+            out.name(a.getKey());
+            a.getValue().writeJson(out);
+        }
+        out.endObject();
+        out.endObject();
+    }
+}
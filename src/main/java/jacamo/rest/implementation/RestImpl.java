@@ -1,29 +1,36 @@
 package jacamo.rest.implementation;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.inject.Singleton;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 
-import com.google.gson.Gson;
-
-import cartago.CartagoException;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import jacamo.rest.JCMRest;
+import jacamo.rest.OperationTracker;
+import jacamo.rest.data.OperationView;
+import jacamo.rest.mediation.OverviewBuilder;
 import jacamo.rest.mediation.TranslAg;
-import jacamo.rest.mediation.TranslEnv;
-import jacamo.rest.mediation.TranslOrg;
+import jacamo.rest.util.EventStream;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.JsonOutput;
 
 @Singleton
 @Path("/")
@@ -38,8 +45,12 @@ public class RestImpl extends AbstractBinder {
     /**
      * Get MAS overview.
      * 
-     * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
+     * The overview is streamed while it is built.
+     * 
+     * @param include sections of the overview (organisations, agents, workspaces), default is all
+     * @return HTTP 200 Response (ok status), 400 for unknown sections, or 500 Internal Server Error in case of
      *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
+     *         Example: /overview?include=agents,workspaces
      */
     @Path("/overview")
     @GET
@@ -47,47 +58,78 @@ public class RestImpl extends AbstractBinder {
     @ApiOperation(value = "Get MAS overview.")
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 400, message = "unknown section"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getOverviewJSON() {
-        Gson gson = new Gson();
-        Map<String, Object> overview = new HashMap<>();
-
+    public Response getOverviewJSON(@QueryParam("include") String include) {
         try {
-            TranslOrg tOrg = new TranslOrg();
-            TranslAg tAg = new TranslAg();
-            TranslEnv tEnv = new TranslEnv();
-
-            List<Object> organisations = new ArrayList<>();
-            overview.put("organisations", organisations);
-            tOrg.getOrganisations().forEach(o -> {
-                organisations.add(tOrg.getSpecification(o));
-            });
-
-            List<Object> agents = new ArrayList<>();
-            overview.put("agents", agents);
-            tAg.getAgents().keySet().forEach(a -> {
-                try {
-                    agents.add(tAg.getAgentDetails(a));
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            });
+            OverviewBuilder builder = new OverviewBuilder(OverviewBuilder.parseInclude(include), JsonMapper.getGson());
+            StreamingOutput body = out -> {
+                Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                builder.write(w);
+                w.flush();
+            };
+            return Response.ok(body).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(400, e.getMessage()).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.status(500, e.getMessage()).build();
+        }
+    }
 
-            List<Object> workspaces = new ArrayList<>();
-            overview.put("workspaces", workspaces);
-            tEnv.getWorkspaces().forEach(w -> {
-                try {
-                    workspaces.add(tEnv.getWorkspace(w));
-                } catch (CartagoException e) {
-                    e.printStackTrace();
-                }
-            });
+    /**
+     * Get metrics of the REST platform (caches, etc). Components not used yet (and so not started)
+     * are absent.
+     * 
+     * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
+     *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
+     *         Sample: {"whitePages":{"hits":120,"misses":2,"hitRate":0.98,"size":3,"synced":true,"consistency":"eventual"}}
+     */
+    @Path("/metrics")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Get metrics of the REST platform.")
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 500, message = "internal error")
+    })
+    public Response getMetricsJSON() {
+        try {
+            // components not started yet are absent (they are not started to be reported)
+            Map<String, Object> metrics = new HashMap<>(JCMRest.getComponentMetrics());
+            metrics.put("messageClient", JCMRest.getMessageClientMetrics());
+            metrics.put("nodeChannels", JCMRest.getNodeChannelMetrics());
+            metrics.put("sse", EventStream.getMetrics());
+            metrics.put("commands", TranslAg.getCommandMetrics());
 
-            return Response.ok(gson.toJson(overview)).build();
+            return Response.ok(JsonMapper.getGson().toJson(metrics)).build();
         } catch (Exception e) {
             e.printStackTrace();
             return Response.status(500, e.getMessage()).build();
         }
     }
+
+    /**
+     * Get the state of an operation executed in an artifact (see POST /workspaces/{wrksname}/artifacts/{artname}/operations/{opname}/execute).
+     * 
+     * @param id of the operation (given in the Location of the execute response)
+     * @return HTTP 200 Response (ok status) or 404 if the operation is unknown (only the last 1000 operations are kept)
+     *         Sample: {"id":"opkf3x2a1c-1","workspace":"testwks","artifact":"a","operation":"inc",
+     *         "state":"running","started":1600000000000}
+     */
+    @Path("/operations/{id}")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Get the state of an operation executed in an artifact.", response = OperationView.class)
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 404, message = "unknown operation")
+    })
+    public Response getOperation(@PathParam("id") String id) {
+        OperationTracker.Operation o = JCMRest.getOperationTracker().get(id);
+        if (o == null)
+            return Response.status(404, "Operation " + id + " not found").build();
+        return Response.ok(new JsonOutput(JsonMapper.getGson(), o.getView())).build();
+    }
 }
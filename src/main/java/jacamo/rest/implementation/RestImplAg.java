@@ -1,7 +1,18 @@
 package jacamo.rest.implementation;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javax.inject.Singleton;
 import javax.ws.rs.Consumes;
@@ -9,27 +20,52 @@ import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 import org.glassfish.jersey.internal.inject.AbstractBinder;
+import org.glassfish.jersey.server.ChunkedOutput;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import jacamo.rest.ChangeVersions;
+import jacamo.rest.JCMRest;
+import jacamo.rest.data.AgentDetails;
 import jacamo.rest.mediation.TranslAg;
-import jacamo.rest.util.Message;
+import jacamo.rest.util.EventStream;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.JsonOutput;
+import jacamo.rest.util.LogBuffer;
+import jacamo.rest.util.MessageCodec;
+import jacamo.rest.util.MessageStream;
 import jason.ReceiverNotFoundException;
+import jason.asSemantics.Agent;
 
 /**
  * Agent's REST compile class
@@ -44,7 +80,7 @@ import jason.ReceiverNotFoundException;
 public class RestImplAg extends AbstractBinder {
 
     TranslAg tAg = new TranslAg();
-    Gson gson = new Gson();
+    Gson gson = JsonMapper.getGson();
 
     @Override
     protected void configure() {
@@ -75,7 +111,7 @@ public class RestImplAg extends AbstractBinder {
     public Response getAgents() {
         return Response
                 .ok()
-                .entity(gson.toJson(tAg.getAgents()))
+                .entity(new JsonOutput(gson, tAg.getAgents()))
                 .header("Access-Control-Allow-Origin", "*")
                 .build();
     }
@@ -208,20 +244,35 @@ public class RestImplAg extends AbstractBinder {
      * @param agName name of the agent
      * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
      *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
+     *         The response has a weak ETag, a request with If-None-Match of this tag gets 304
+     *         while the beliefs, workspaces, artifacts, roles and missions of the agent do not change.
      * 
      */
     @Path("/{agentname}")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    @ApiOperation(value = "Get agent information (namespaces, roles, missions and workspaces).")
+    @ApiOperation(value = "Get agent information (namespaces, roles, missions and workspaces).", response = AgentDetails.class)
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 304, message = "not modified (If-None-Match)"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getAgent(@PathParam("agentname") String agName) {
+    public Response getAgent(@PathParam("agentname") String agName, @Context Request request) {
         try {
+            EntityTag tag = null;
+            Agent ag = tAg.getAgent(agName);
+            long bbVersion = ag == null ? -1 : tAg.getBeliefsVersion(ag);
+            if (bbVersion >= 0) { // agents without a VersionedBB have no tag
+                ChangeVersions versions = JCMRest.getChangeVersions();
+                versions.refresh();
+                tag = versions.tag(versions.getAgentVersion(agName), bbVersion, ag.getBB().size());
+                ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                if (notModified != null)
+                    return notModified.build();
+            }
             return Response
-                    .ok(gson.toJson(tAg.getAgentDetails(agName)))
+                    .ok(new JsonOutput(gson, tAg.getAgentDetails(agName)))
+                    .tag(tag)
                     .build();
         } catch (ReceiverNotFoundException e) {
             return Response.status(500, e.getMessage()).build();
@@ -294,9 +345,15 @@ public class RestImplAg extends AbstractBinder {
     /**
      * Send a command to an agent returning a status message.
      * 
-     * @param cmd    command expression
-     * @param agName agent name
-     * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
+     * The request thread does not wait for the command: the response is sent when
+     * the intention of the command finishes. Commands not finished after the timeout
+     * (or whose client disconnects) are dropped.
+     * 
+     * @param cmd     command expression
+     * @param agName  agent name
+     * @param timeout in milliseconds (default given by --cmdTimeout, 0 for no timeout)
+     * @return HTTP 200 Response (ok status), 503 if too many commands are running, 504 if
+     *         the command timed out, or 500 Internal Server Error in case of
      *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
      *         Example: curl --request POST 'http://127.0.0.1:8080/agents/marcos/command'
      *                  --header 'Content-Type: application/x-www-form-urlencoded' --data-urlencode 'c=+raining'
@@ -312,23 +369,120 @@ public class RestImplAg extends AbstractBinder {
     )
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
-            @ApiResponse(code = 500, message = "internal error")
+            @ApiResponse(code = 500, message = "internal error"),
+            @ApiResponse(code = 503, message = "too many commands running"),
+            @ApiResponse(code = 504, message = "command timeout")
     })
-    public Response postAgentCommand(@FormParam("c") String cmd, @PathParam("agentname") String agName) {
+    public void postAgentCommand(@FormParam("c") String cmd, @PathParam("agentname") String agName,
+            @DefaultValue("-1") @QueryParam("timeout") long timeout,
+            @Suspended AsyncResponse ar) {
+        CompletableFuture<Map<String,String>> r;
         try {
-            return Response
-                    .ok(gson.toJson(tAg.executeCommand(cmd, agName)))
-                    .build();
+            r = tAg.executeCommandAsync(cmd, agName, timeout < 0 ? JCMRest.getCommandTimeout() : timeout);
+        } catch (RejectedExecutionException e) {
+            ar.resume(Response.status(503, e.getMessage()).build());
+            return;
         } catch (Exception e) {
             e.printStackTrace();
-            return Response.status(500, e.getMessage()).build();
+            ar.resume(Response.status(500, e.getMessage()).build());
+            return;
+        }
+
+        // the client has gone, stop the command
+        ar.register((ConnectionCallback) disconnected -> r.cancel(false));
+
+        r.whenComplete((um, ex) -> {
+            if (ex == null) {
+                ar.resume(Response.ok(gson.toJson(um)).build());
+            } else if (ex instanceof TimeoutException) {
+                ar.resume(Response.status(504, ex.getMessage()).build());
+            } else if (!(ex instanceof CancellationException)) {
+                ex.printStackTrace();
+                ar.resume(Response.status(500, ex.getMessage()).build());
+            }
+        });
+    }
+
+    /**
+     * Send a batch of commands to agents.
+     * 
+     * The body is a JSON list of {"agent": name, "command": expression}. Commands run concurrently
+     * (at most <i>parallelism</i> at a time) and their results are streamed (one JSON by line) as they finish:
+     * {"index": position in the list, "agent": ..., "command": ..., "result": {variable: value}} or
+     * {"index": ..., "agent": ..., "command": ..., "error": message}
+     * 
+     * @param body        list of commands
+     * @param parallelism maximum number of commands of the batch running at the same time
+     * @param timeout     of each command in milliseconds (default given by --cmdTimeout)
+     * @return HTTP 200 Response (ok status) with the results, or 400 if the body is not a list of commands
+     *         Example: curl --request POST 'http://127.0.0.1:8080/agents/_batch/command'
+     *                  --header 'Content-Type: application/json' --data '[{"agent":"marcos","command":"+raining"}]'
+     */
+    @Path("/_batch/command")
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces("application/x-ndjson")
+    @ApiOperation(
+            value = "Send a batch of commands to agents, results are streamed as they finish.",
+            notes = "Example: curl --request POST 'http://127.0.0.1:8080/agents/_batch/command' "+
+                    "--header 'Content-Type: application/json' --data '[{\"agent\":\"marcos\",\"command\":\"+raining\"}]'"
+    )
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 400, message = "invalid list of commands")
+    })
+    public ChunkedOutput<String> postBatchCommand(String body,
+            @DefaultValue("16") @QueryParam("parallelism") int parallelism,
+            @DefaultValue("-1") @QueryParam("timeout") long timeout) {
+        List<String[]> cmds = new ArrayList<>();
+        try {
+            for (JsonElement e: new JsonParser().parse(body).getAsJsonArray()) {
+                JsonObject o = e.getAsJsonObject();
+                cmds.add(new String[] { o.get("agent").getAsString(), o.get("command").getAsString() });
+            }
+        } catch (Exception e) {
+            throw new WebApplicationException(Response.status(400, "Expected a list of {\"agent\": ..., \"command\": ...}").build());
         }
+
+        ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+        tAg.executeCommands(cmds, parallelism, timeout < 0 ? JCMRest.getCommandTimeout() : timeout, (idx, r, ex) -> {
+            Map<String,Object> line = new LinkedHashMap<>();
+            line.put("index", idx);
+            line.put("agent", cmds.get(idx)[0]);
+            line.put("command", cmds.get(idx)[1]);
+            if (ex == null) {
+                line.put("result", r);
+            } else {
+                line.put("error", ex.getMessage() == null ? ex.toString() : ex.getMessage());
+            }
+            try {
+                synchronized (output) {
+                    output.write(gson.toJson(line) + "\n");
+                }
+                return true;
+            } catch (IOException e) {
+                return false; // the client has gone
+            }
+        }).whenComplete((v, ex) -> {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // the client has gone
+            }
+        });
+        return output;
     }
 
     /**
-     * Get agent full log as text.
+     * Get agent log as text.
+     * 
+     * Only the last entries are kept by the agent's log (see --logCapacity).
+     * The header X-Log-Next has the sequence number to be used as
+     * <i>since</i> in the next request to get only new entries.
      * 
      * @param agName agent name
+     * @param since  sequence number of the first entry to return
+     * @param limit  maximum number of entries to return (-1 for all)
      * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
      *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
      *         Example: [06-04-20 20:37:03] Command +raining: {}
@@ -337,17 +491,29 @@ public class RestImplAg extends AbstractBinder {
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @ApiOperation(
-            value = "Get agent full log as text.",
+            value = "Get agent log as text.",
             notes = "Example: [06-04-20 20:37:03] Command +raining: {}"
     )
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getAgentLog(@PathParam("agentname") String agName) {
+    public Response getAgentLog(@PathParam("agentname") String agName,
+            @DefaultValue("0") @QueryParam("since") long since,
+            @DefaultValue("-1") @QueryParam("limit") int limit) {
         try {
+            LogBuffer log = tAg.getAgentLogBuffer(agName);
+            if (log == null) {
+                return Response
+                        .ok(tAg.getAgentLog(agName))
+                        .build();
+            }
+            
+            List<LogBuffer.Entry> entries = log.get(since, limit < 0 ? Integer.MAX_VALUE : limit);
+            long next = entries.isEmpty() ? Math.max(since, log.getNextSeq()) : entries.get(entries.size()-1).getSeq() + 1;
             return Response
-                    .ok(tAg.getAgentLog(agName))
+                    .ok(LogBuffer.toText(entries))
+                    .header("X-Log-Next", next)
                     .build();
         } catch (Exception e) {
             e.printStackTrace();
@@ -356,41 +522,187 @@ public class RestImplAg extends AbstractBinder {
     }
 
     /**
-     * Append a message on agent's inbox.
+     * Follow the agent log: new entries are pushed as Server-Sent Events
+     * (event "log", id is the sequence number of the entry, data as in GET log).
+     * 
+     * Entries since a sequence number (query parameter <i>since</i> or header
+     * Last-Event-ID) are sent first. Each client has a bounded queue (see --sseQueue),
+     * older entries are dropped if the client does not keep up.
      * 
-     * @param m message
+     * @param agName agent name
+     * @param since  sequence number of the first entry to send (-1 for only new entries)
+     */
+    @Path("/{agentname}/log/stream")
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @ApiOperation(value = "Follow agent log as Server-Sent Events.")
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 404, message = "agent not found")
+    })
+    public void getAgentLogStream(@PathParam("agentname") String agName,
+            @DefaultValue("-1") @QueryParam("since") long since,
+            @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId,
+            @Context SseEventSink sink,
+            @Context Sse sse) {
+        LogBuffer log = tAg.getOrCreateAgentLogBuffer(agName);
+        if (log == null)
+            throw new NotFoundException("agent "+agName+" does not exist in the MAS");
+
+        if (lastEventId != null) {
+            try {
+                since = Long.parseLong(lastEventId) + 1;
+            } catch (NumberFormatException e) {
+                // ignore invalid ids
+            }
+        }
+
+        EventStream stream = new EventStream(sink, sse, JCMRest.getSSEQueueSize());
+        // seq of the last entry enqueued: replayed and new entries may overlap, older seqs are duplicates
+        // since the LogBuffer calls its listeners in the order of the entries
+        AtomicLong last = new AtomicLong();
+        Consumer<LogBuffer.Entry> listener = e -> {
+            synchronized (last) {
+                if (e.getSeq() > last.get()) {
+                    last.set(e.getSeq());
+                    stream.offer(sse.newEventBuilder()
+                            .name("log")
+                            .id(Long.toString(e.getSeq()))
+                            .data(String.class, e.toString())
+                            .build());
+                }
+            }
+        };
+        stream.setOnClose(() -> log.removeListener(listener));
+
+        synchronized (last) {
+            log.addListener(listener);
+            if (since < 0) {
+                last.set(log.getNextSeq() - 1);
+            } else {
+                since = Math.min(since, log.getNextSeq()); // a stale id (e.g., of a previous run) does not hide new entries
+                last.set(since - 1);
+                for (LogBuffer.Entry e: log.get(since, log.getCapacity()))
+                    listener.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Append messages on agent's inbox.
+     * 
+     * The body is a message, a JSON array of messages or (Content-Type application/x-ndjson)
+     * one message by line. Messages are delivered as they are read.
+     * 
+     * @param body message(s)
      * @param agName agent name
      * @return HTTP 200 Response (ok status) or 500 Internal Server Error in case of
-     *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1)
+     *         error (based on https://tools.ietf.org/html/rfc7231#section-6.6.1) for a single message;
+     *         for arrays and NDJSON, 200 with the summary {"accepted":2,"rejected":[{"index":1,"error":...}]}
+     *         (400 with the summary if the JSON is invalid)
      *         Example: curl --location --request POST 'http://127.0.0.1:8080/agents/marcos/inbox'
      *         --header 'Content-Type: application/json'
      *         --data-raw '{"performative":"tell","sender":"jomi","receiver":"bob","content":"vl(10)","msgId":"34"}'
      */
     @Path("/{agentname}/inbox")
     @POST
-    @Consumes(MediaType.APPLICATION_JSON)
+    @Consumes({ MediaType.APPLICATION_JSON, MessageStream.NDJSON })
     @ApiOperation(
-            value = "Append a message on agent's inbox.",
+            value = "Append messages on agent's inbox.",
             notes = "Example: curl --location --request POST 'http://127.0.0.1:8080/agents/marcos/inbox'" + 
                             " --header 'Content-Type: application/json'" + 
                             " --data-raw '{\"performative\":\"tell\",\"sender\":\"jomi\",\"receiver\":\"bob\",\"content\":\"vl(10)\",\"msgId\":\"34\"}'"
             )
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 400, message = "invalid JSON"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response postAgentMessage(Message m, @PathParam("agentname") String agName) {
+    public Response postAgentMessage(InputStream body, @PathParam("agentname") String agName, @Context HttpHeaders headers) {
         try {
-            tAg.addMessageToAgentMailbox(m, agName); 
-            return Response
-                    .ok()
-                    .build();
+            MessageStream.Summary s = new MessageStream(gson).read(body, isNDJSON(headers), m -> tAg.addMessageToAgentMailbox(m, agName));
+            if (s.isSingle() && s.getInvalid() == null) {
+                // a single message, answered as before
+                if (s.getRejected().isEmpty())
+                    return Response.ok().build();
+                return Response.status(500, s.getRejected().get(0).get("error").toString()).build();
+            }
+            return summary(s);
         } catch (Exception e) {
             e.printStackTrace();
             return Response.status(500, e.getMessage()).build();
         }
     }
-    
+
+    /**
+     * Append messages on the inbox of several agents (also used by the nodes to send messages in batches).
+     * 
+     * The body is a JSON array of messages or (Content-Type application/x-ndjson) one message by line,
+     * the receiver of each message is the name of an agent of this node. Messages are delivered as they are read.
+     * 
+     * @return HTTP 200 Response with the summary (400 if the JSON is invalid):
+     *         {"accepted":1,"rejected":[{"index":1,"receiver":"bob","error":"Receiver 'bob' not found"}]}
+     *         Example: curl --request POST 'http://127.0.0.1:8080/agents/_batch/inbox'
+     *         --header 'Content-Type: application/json'
+     *         --data-raw '[{"performative":"tell","sender":"jomi","receiver":"marcos","content":"vl(10)","msgId":"34"}]'
+     */
+    @Path("/_batch/inbox")
+    @POST
+    @Consumes({ MediaType.APPLICATION_JSON, MessageStream.NDJSON })
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Append messages on the inbox of several agents.")
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 400, message = "invalid JSON"),
+            @ApiResponse(code = 500, message = "internal error")
+    })
+    public Response postBatchMessages(InputStream body, @Context HttpHeaders headers) {
+        try {
+            return summary(new MessageStream(gson).read(body, isNDJSON(headers), m -> tAg.addMessageToAgentMailbox(m, m.getReceiver())));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.status(500, e.getMessage()).build();
+        }
+    }
+
+    /**
+     * Append messages encoded by the MessageCodec (Content-Type application/x-jacamo-msg) on the inbox
+     * of several agents, used by the jacamo-rest nodes to send messages to each other.
+     * 
+     * @return HTTP 200 Response with the summary (400 if the stream is invalid)
+     */
+    @Path("/_batch/inbox")
+    @POST
+    @Consumes(MessageCodec.MEDIA_TYPE)
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Append binary encoded messages on the inbox of several agents (used between nodes).")
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 400, message = "invalid message stream"),
+            @ApiResponse(code = 500, message = "internal error")
+    })
+    public Response postBatchMessagesBinary(InputStream body) {
+        try {
+            return summary(MessageStream.readBinary(body, JCMRest.getMsgMaxBytes(), m -> tAg.addMessageToAgentMailbox(m, m.getReceiver())));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.status(500, e.getMessage()).build();
+        }
+    }
+
+    boolean isNDJSON(HttpHeaders headers) {
+        MediaType t = headers.getMediaType();
+        return t != null && MessageStream.NDJSON.equals(t.getType() + "/" + t.getSubtype());
+    }
+
+    Response summary(MessageStream.Summary s) {
+        return Response
+                .status(s.getInvalid() == null ? 200 : 400)
+                .type(MediaType.APPLICATION_JSON)
+                .entity(gson.toJson(s.toMap()))
+                .build();
+    }
+
     /**
      * Get services provided by a given agent.
      * 
@@ -413,7 +725,7 @@ public class RestImplAg extends AbstractBinder {
         try {
             return Response
                     .ok()
-                    .entity(new Gson().toJson( tAg.getCommonDF().get(agName) ))
+                    .entity(gson.toJson( tAg.getAgentServices(agName) ))
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
 
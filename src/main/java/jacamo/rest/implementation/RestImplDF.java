@@ -16,6 +16,8 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import jacamo.rest.mediation.TranslAg;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.JsonOutput;
 
 @Singleton
 @Path("/services")
@@ -51,11 +53,11 @@ public class RestImplDF extends AbstractBinder {
     })
     public Response getServices() {
         try {
-            Gson gson = new Gson();
+            Gson gson = JsonMapper.getGson();
 
             return Response
                     .ok()
-                    .entity(gson.toJson(tAg.getJsonifiedDF()))
+                    .entity(new JsonOutput(gson, tAg.getJsonifiedDF()))
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
         } catch (Exception e) {
@@ -1,29 +1,61 @@
 package jacamo.rest.implementation;
 
 import java.net.URI;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
 
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.Gson;
 
+import cartago.AgentId;
+import cartago.ArtifactId;
+import cartago.ArtifactObsProperty;
+import cartago.CartagoException;
+import cartago.Tuple;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import jacamo.rest.ArtifactEvents;
+import jacamo.rest.ChangeVersions;
+import jacamo.rest.JCMRest;
+import jacamo.rest.OperationTracker;
+import jacamo.rest.data.ArtifactView;
+import jacamo.rest.data.OperationView;
+import jacamo.rest.data.WorkspaceView;
 import jacamo.rest.mediation.TranslEnv;
+import jacamo.rest.util.EventStream;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.JsonOutput;
 import jacamo.rest.util.PostArtifact;
 
 @Singleton
@@ -32,6 +64,7 @@ import jacamo.rest.util.PostArtifact;
 public class RestImplEnv extends AbstractBinder {
 
     TranslEnv tEnv = new TranslEnv();
+    Gson gson = JsonMapper.getGson();
 
     @Override
     protected void configure() {
@@ -56,7 +89,7 @@ public class RestImplEnv extends AbstractBinder {
         try {
             return Response
                     .ok()
-                    .entity(new Gson().toJson(tEnv.getWorkspaces()))
+                    .entity(gson.toJson(tEnv.getWorkspaces()))
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
 
@@ -77,20 +110,34 @@ public class RestImplEnv extends AbstractBinder {
      *         "linkedArtifacts":["b"],"type":"tools.Counter","properties":[{"count":10}],"observers":["marcos"]},
      *         "b":{"artifact":"b","operations":["observeProperty","inc"],"linkedArtifacts":[],"type":"tools.Counter",
      *         "properties":[{"count":2}],"observers":["marcos"]}}}
+     *         The response has a weak ETag, a request with If-None-Match of this tag gets 304
+     *         while the workspace does not change.
      */
     @Path("/{wrksname}")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    @ApiOperation(value = "Get workspace information (its artifacts including their properties, operations, etc).")
+    @ApiOperation(value = "Get workspace information (its artifacts including their properties, operations, etc).", response = WorkspaceView.class)
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 304, message = "not modified (If-None-Match)"),
+            @ApiResponse(code = 404, message = "workspace not found"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getWorkspace(@PathParam("wrksname") String wrksName) {
+    public Response getWorkspace(@PathParam("wrksname") String wrksName, @Context Request request) {
         try {
+            ChangeVersions versions = JCMRest.getChangeVersions();
+            versions.refresh();
+            if (!tEnv.hasWorkspace(wrksName)) // checked before the tag, unknown ones have version 0
+                return Response.status(404, "workspace "+wrksName+" does not exist").build();
+            EntityTag tag = versions.tag(versions.getWorkspaceVersion(wrksName));
+            ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null)
+                return notModified.header("Access-Control-Allow-Origin", "*").build();
+
             return Response
                     .ok()
-                    .entity(new Gson().toJson(tEnv.getWorkspace(wrksName)))
+                    .entity(new JsonOutput(gson, tEnv.getWorkspace(wrksName)))
+                    .tag(tag)
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
 
@@ -136,21 +183,33 @@ public class RestImplEnv extends AbstractBinder {
      *         Sample:
      *         {"artifact":"a","operations":["observeProperty","inc"],"linkedArtifacts":["b"],
      *         "type":"tools.Counter","properties":[{"count":10}],"observers":["marcos"]}
+     *         The response has a weak ETag (see getWorkspace).
      */
     @Path("/{wrksname}/artifacts/{artname}")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    @ApiOperation(value = "Get artifact information (properties, operations, observers and linked artifacts).")
+    @ApiOperation(value = "Get artifact information (properties, operations, observers and linked artifacts).", response = ArtifactView.class)
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 304, message = "not modified (If-None-Match)"),
+            @ApiResponse(code = 404, message = "artifact not found"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getArtifact(@PathParam("wrksname") String wrksName, @PathParam("artname") String artName) {
+    public Response getArtifact(@PathParam("wrksname") String wrksName, @PathParam("artname") String artName, @Context Request request) {
         try {
+            ChangeVersions versions = JCMRest.getChangeVersions();
+            versions.refresh();
+            if (!tEnv.hasArtifact(wrksName, artName)) // checked before the tag, unknown ones have version 0
+                return Response.status(404, "artifact "+artName+" does not exist in workspace "+wrksName).build();
+            EntityTag tag = versions.tag(versions.getArtifactVersion(wrksName, artName));
+            ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null)
+                return notModified.header("Access-Control-Allow-Origin", "*").build();
+
             return Response
                     .ok()
-                    .entity(new Gson()
-                            .toJson(tEnv.getArtifact(wrksName, artName)))
+                    .entity(new JsonOutput(gson, tEnv.getArtifact(wrksName, artName)))
+                    .tag(tag)
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
 
@@ -186,7 +245,7 @@ public class RestImplEnv extends AbstractBinder {
         try {
             return Response
                     .ok()
-                    .entity(new Gson()
+                    .entity(gson
                             .toJson(tEnv.getObsPropValue(wrksName, artName, obsPropId)))
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
@@ -197,31 +256,185 @@ public class RestImplEnv extends AbstractBinder {
         }
     }
 
+    /**
+     * Follow an artifact: changes in its observable properties and its signals are pushed
+     * as Server-Sent Events.
+     * 
+     * Events: "property" (data {"name":"count","values":[11]}, the current properties are sent
+     * first), "removed" (data {"name":"count"}), "signal" (data {"name":"tick","values":[]})
+     * and "disposed". Each client has a bounded queue (see --sseQueue): updates of a property
+     * still in the queue are replaced by the new value, other events are dropped (the oldest)
+     * if the client does not keep up.
+     * 
+     * @param wrksName name of the workspace the artifact is situated in
+     * @param artName  name of the artifact
+     */
+    @Path("/{wrksname}/artifacts/{artname}/stream")
+    @GET
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @ApiOperation(value = "Follow the observable properties and signals of an artifact as Server-Sent Events.")
+    @ApiResponses(value = { 
+            @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 404, message = "artifact not found")
+    })
+    public void getArtifactStream(@PathParam("wrksname") String wrksName, @PathParam("artname") String artName,
+            @Context SseEventSink sink,
+            @Context Sse sse) {
+        boolean exists;
+        try {
+            exists = tEnv.hasArtifact(wrksName, artName);
+        } catch (CartagoException e) {
+            exists = false;
+        }
+        if (!exists)
+            throw new NotFoundException("artifact "+artName+" does not exist in workspace "+wrksName);
+
+        EventStream stream = new EventStream(sink, sse, JCMRest.getSSEQueueSize());
+        // properties updated by the listener before the current state is sent:
+        // the current state of these properties is older than the update and is not sent
+        Set<String> updated  = new HashSet<>();
+        boolean[]   snapshot = { false }; // whether the current state was sent
+        ArtifactEvents hub = JCMRest.getArtifactEvents();
+        ArtifactEvents.Listener listener = new ArtifactEvents.Listener() {
+            boolean isFollowed(ArtifactId id) {
+                return id.getName().equals(artName) && id.getWorkspaceId().getName().equals(wrksName);
+            }
+
+            void property(String event, ArtifactObsProperty p) {
+                if (!snapshot[0])
+                    updated.add(p.getName());
+                stream.offer(artifactEvent(sse, event, p.getName(), event.equals("removed") ? null : p.getValues()), p.getName());
+            }
+
+            @Override
+            public void newPercept(long when, ArtifactId id, Tuple signal, ArtifactObsProperty[] added, ArtifactObsProperty[] removed, ArtifactObsProperty[] changed) {
+                if (!isFollowed(id))
+                    return;
+                synchronized (updated) {
+                    if (added != null)
+                        for (ArtifactObsProperty p: added)
+                            property("property", p);
+                    if (changed != null)
+                        for (ArtifactObsProperty p: changed)
+                            property("property", p);
+                    if (removed != null)
+                        for (ArtifactObsProperty p: removed)
+                            property("removed", p);
+                }
+                if (signal != null)
+                    stream.offer(artifactEvent(sse, "signal", signal.getLabel(), signal.getContents()));
+            }
+
+            @Override
+            public void artifactDisposed(long when, ArtifactId id, AgentId disposer) {
+                if (isFollowed(id))
+                    stream.offer(artifactEvent(sse, "disposed", artName, null));
+            }
+        };
+        stream.setOnClose(() -> hub.removeListener(listener));
+
+        // the listener is added before the current state is read, so that no update is lost
+        hub.attach();
+        hub.addListener(listener);
+        List<ArtifactObsProperty> props;
+        try {
+            props = tEnv.getObsProperties(wrksName, artName);
+        } catch (Exception e) {
+            // disposed meanwhile
+            stream.offer(artifactEvent(sse, "disposed", artName, null));
+            return;
+        }
+        synchronized (updated) {
+            for (ArtifactObsProperty p: props)
+                if (!updated.contains(p.getName()))
+                    stream.offer(artifactEvent(sse, "property", p.getName(), p.getValues()), p.getName());
+            snapshot[0] = true;
+            updated.clear();
+        }
+    }
+
+    protected OutboundSseEvent artifactEvent(Sse sse, String event, String name, Object[] values) {
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("name", name);
+        if (values != null)
+            data.put("values", values);
+        return sse.newEventBuilder()
+                .name(event)
+                .data(String.class, gson.toJson(data))
+                .build();
+    }
+
     /**
      * Executes an operation in an artifact.
+     * 
+     * The request thread does not wait for the operation: by default the response is sent
+     * when the operation succeeds or fails, with the values of its output parameters (the
+     * last <i>outputs</i> parameters of the operation, not given in the body). With wait=false,
+     * the response is sent at once with status 202. In both cases, the state of the operation
+     * is available at the URI of the Location header (GET /operations/{id}).
+     * 
+     * @param outputs number of output parameters of the operation
+     * @param wait    whether to wait for the end of the operation
+     * @param timeout in milliseconds (default given by --cmdTimeout, 0 for no timeout); the
+     *                operation is not stopped, only the response is sent (504)
+     * @return HTTP 200 Response (the operation succeeded), 202 (not waiting), 500 if the operation
+     *         failed, 503 if too many operations are running, or 504 if it is not finished after the timeout
+     *         Sample: {"id":"opkf3x2a1c-1","workspace":"testwks","artifact":"a","operation":"inc",
+     *         "state":"succeeded","outputs":[],"started":1600000000000,"finished":1600000000003}
      */
     @Path("/{wrksname}/artifacts/{artname}/operations/{opname}/execute")
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    @ApiOperation(value = "Executes an operation in an artifact.")
+    @Produces(MediaType.APPLICATION_JSON)
+    @ApiOperation(value = "Executes an operation in an artifact.", response = OperationView.class)
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
-            @ApiResponse(code = 500, message = "internal error")
+            @ApiResponse(code = 202, message = "operation started (wait=false)"),
+            @ApiResponse(code = 500, message = "internal error or operation failed"),
+            @ApiResponse(code = 503, message = "too many operations running"),
+            @ApiResponse(code = 504, message = "operation not finished in the timeout")
     })
-    public Response postArtifactOperation(
+    public void postArtifactOperation(
             @PathParam("wrksname") String wrksName, 
             @PathParam("artname") String artName, 
             @PathParam("opname") String operationName, 
-            Object[] values) {
+            @DefaultValue("0") @QueryParam("outputs") int outputs,
+            @DefaultValue("true") @QueryParam("wait") boolean wait,
+            @DefaultValue("-1") @QueryParam("timeout") long timeout,
+            @Context UriInfo uriInfo,
+            Object[] values,
+            @Suspended AsyncResponse ar) {
+        OperationTracker.Operation o;
         try {
-            tEnv.execOp(wrksName, artName, operationName, values);
-            return Response
-                    .ok()
-                    .build();
+            o = tEnv.execOpAsync(wrksName, artName, operationName, values, Math.max(0, outputs));
+        } catch (RejectedExecutionException e) {
+            ar.resume(Response.status(503, e.getMessage()).build());
+            return;
         } catch (Exception e) {
             e.printStackTrace();
-            return Response.status(500, e.getMessage()).build();
+            ar.resume(Response.status(500, e.getMessage()).build());
+            return;
+        }
+        URI location = uriInfo.getBaseUriBuilder().path("operations").path(o.getId()).build();
+
+        if (!wait) {
+            ar.resume(Response.accepted(new JsonOutput(gson, o.getView())).location(location).build());
+            return;
+        }
+
+        long t = timeout < 0 ? JCMRest.getCommandTimeout() : timeout;
+        if (t > 0) {
+            ar.setTimeoutHandler(r -> r.resume(Response
+                    .status(504, "Operation " + operationName + " not finished in " + t + " ms")
+                    .entity(new JsonOutput(gson, o.getView()))
+                    .location(location)
+                    .build()));
+            ar.setTimeout(t, TimeUnit.MILLISECONDS);
         }
+        o.getCompletion().thenAccept(v -> {
+            ResponseBuilder r = OperationView.SUCCEEDED.equals(v.getState()) ? Response.ok() : Response.status(500, v.getError() == null ? "operation failed" : v.getError());
+            ar.resume(r.entity(new JsonOutput(gson, v)).location(location).build());
+        });
     }
     
     /**
@@ -245,12 +458,9 @@ public class RestImplEnv extends AbstractBinder {
     public Response postArtifact(
             @PathParam("wrksname") String wrksName, 
             @PathParam("artname") String artName,
-            String content, 
+            PostArtifact m, 
             @Context UriInfo uriInfo) {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            PostArtifact m = mapper.readValue(content, PostArtifact.class);
-            
             tEnv.createArtefact(wrksName, artName, m.getTemplate(), m.getValues());
             return Response
                     .created(new URI(uriInfo.getBaseUri() + "workspaces/" + wrksName + "/" + artName))
@@ -7,8 +7,12 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 
 import org.glassfish.jersey.internal.inject.AbstractBinder;
 
@@ -18,7 +22,12 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
+import jacamo.rest.ChangeVersions;
+import jacamo.rest.JCMRest;
+import jacamo.rest.data.OrganisationView;
 import jacamo.rest.mediation.TranslOrg;
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.JsonOutput;
 
 @Singleton
 @Path("/organisations")
@@ -48,7 +57,7 @@ public class RestImplOrg extends AbstractBinder {
     })
     public Response getOrganisationsJSON() {
 
-        Gson gson = new Gson();
+        Gson gson = JsonMapper.getGson();
         try {
             return Response
                     .ok(gson.toJson(tOrg.getOrganisations()))
@@ -77,20 +86,34 @@ public class RestImplOrg extends AbstractBinder {
      *         {"mission":"mission2","missionGoals":["goal3"]}],"players":["marcos (
 	 *         mission1 )"],"isWellFormed":true, "goals":["goal2 \u003c-
 	 *         goal1","goal3 \u003c- goal1","goal4 \u003c- goal1"]}]}
+     *         The response has a weak ETag, a request with If-None-Match of this tag gets 304
+     *         while the boards of the organisation do not change.
      */
     @Path("/{oename}")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    @ApiOperation(value = "Get organisation's information (groups, schemes and norms).")
+    @ApiOperation(value = "Get organisation's information (groups, schemes and norms).", response = OrganisationView.class)
     @ApiResponses(value = { 
             @ApiResponse(code = 200, message = "success"),
+            @ApiResponse(code = 304, message = "not modified (If-None-Match)"),
+            @ApiResponse(code = 404, message = "organisation not found"),
             @ApiResponse(code = 500, message = "internal error")
     })
-    public Response getSpecificationJSON(@PathParam("oename") String oeName) {
+    public Response getSpecificationJSON(@PathParam("oename") String oeName, @Context Request request) {
         try {
-            Gson gson = new Gson();
+            ChangeVersions versions = JCMRest.getChangeVersions();
+            versions.refresh();
+            if (!tOrg.hasOrganisation(oeName)) // checked before the tag, unknown ones have version 0
+                return Response.status(404, "organisation "+oeName+" does not exist").build();
+            EntityTag tag = versions.tag(versions.getOrganisationVersion(oeName));
+            ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null)
+                return notModified.header("Access-Control-Allow-Origin", "*").build();
+
+            Gson gson = JsonMapper.getGson();
             return Response
-                    .ok(gson.toJson(tOrg.getSpecification(oeName)))
+                    .ok(new JsonOutput(gson, tOrg.getSpecification(oeName)))
+                    .tag(tag)
                     .header("Access-Control-Allow-Origin", "*")
                     .build();
         } catch (Exception e) {
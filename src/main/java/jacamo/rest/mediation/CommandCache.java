@@ -0,0 +1,83 @@
+package jacamo.rest.mediation;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jason.asSyntax.ASSyntax;
+import jason.asSyntax.PlanBody;
+import jason.asSyntax.parser.ParseException;
+
+/**
+ * LRU cache of parsed commands (REPL expressions), keyed by the normalised
+ * text of the command.
+ *
+ * The cached plan bodies are never given to the agents, each execution
+ * receives a clone.
+ */
+public class CommandCache {
+
+    protected final int                   capacity;
+    protected final Map<String, PlanBody> cache;
+
+    protected final AtomicLong hits   = new AtomicLong();
+    protected final AtomicLong misses = new AtomicLong();
+
+    @SuppressWarnings("serial")
+    public CommandCache(int capacity) {
+        this.capacity = capacity;
+        this.cache    = new LinkedHashMap<String, PlanBody>(16, 0.75f, true) { // access order
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PlanBody> eldest) {
+                return size() > CommandCache.this.capacity;
+            }
+        };
+    }
+
+    /** removes spaces around the command and its final "." */
+    public static String normalise(String cmd) {
+        cmd = cmd.trim();
+        if (cmd.endsWith("."))
+            cmd = cmd.substring(0, cmd.length() - 1).trim();
+        return cmd;
+    }
+
+    /** returns a new copy of the plan body of the (normalised) command */
+    public PlanBody get(String cmd) throws ParseException {
+        PlanBody pb;
+        synchronized (cache) {
+            pb = cache.get(cmd);
+        }
+        if (pb == null) {
+            misses.incrementAndGet();
+            pb = ASSyntax.parsePlanBody(cmd); // parsed out of the lock, two threads may parse the same command
+            if (capacity > 0) {
+                synchronized (cache) {
+                    cache.put(cmd, pb);
+                }
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+        return pb.clonePB();
+    }
+
+    public int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public Map<String,Object> getMetrics() {
+        long h = hits.get();
+        long t = h + misses.get();
+        Map<String,Object> m = new HashMap<>();
+        m.put("capacity", capacity);
+        m.put("size", size());
+        m.put("hits", h);
+        m.put("misses", misses.get());
+        m.put("hitRate", t == 0 ? 0 : (double)h / t);
+        return m;
+    }
+}
@@ -0,0 +1,115 @@
+package jacamo.rest.mediation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import jacamo.rest.AgentIndex;
+import jacamo.rest.JCMRest;
+
+/**
+ * Builds the MAS overview (organisations, agents and workspaces) in one pass.
+ *
+ * The boards are grouped by organisation once and the agent index is refreshed
+ * once for all agents. The JSON is written section by section, item by item,
+ * so the whole overview is never in memory.
+ */
+public class OverviewBuilder {
+
+    public static final List<String> SECTIONS = Collections.unmodifiableList(Arrays.asList("organisations", "agents", "workspaces"));
+
+    protected final Set<String> include;
+    protected final Gson        gson;
+
+    protected TranslOrg tOrg = new TranslOrg();
+    protected TranslAg  tAg  = new TranslAg();
+    protected TranslEnv tEnv = new TranslEnv();
+
+    /**
+     * @param include sections to include in the overview (null or empty for all)
+     */
+    public OverviewBuilder(Set<String> include, Gson gson) {
+        this.include = include == null || include.isEmpty() ? new HashSet<>(SECTIONS) : include;
+        this.gson    = gson;
+    }
+
+    /** parses the value of the include parameter (e.g. "agents,workspaces") */
+    public static Set<String> parseInclude(String include) throws IllegalArgumentException {
+        Set<String> r = new HashSet<>();
+        if (include == null)
+            return r;
+        for (String s: include.split(",")) {
+            s = s.trim();
+            if (s.isEmpty())
+                continue;
+            if (!SECTIONS.contains(s))
+                throw new IllegalArgumentException("Unknown section '" + s + "', use " + SECTIONS);
+            r.add(s);
+        }
+        return r;
+    }
+
+    public void write(Writer out) throws IOException {
+        JsonWriter w = new JsonWriter(out);
+        w.beginObject();
+
+        if (include.contains("organisations")) {
+            w.name("organisations").beginArray();
+            TranslOrg.OrgBoards boards = new TranslOrg.OrgBoards();
+            for (String o: boards.getOrganisations()) {
+                try {
+                    writeItem(w, tOrg.getSpecification(o, boards));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            w.endArray();
+        }
+
+        if (include.contains("agents")) {
+            w.name("agents").beginArray();
+            AgentIndex index = JCMRest.getAgentIndex();
+            index.refresh();
+            Map<String, Map<String, String>> wp = tAg.getAgents();
+            if (wp != null) {
+                for (String a: wp.keySet()) {
+                    if (tAg.getAgent(a) == null) // agent of another node
+                        continue;
+                    try {
+                        writeItem(w, tAg.getAgentDetails(a, index));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            w.endArray();
+        }
+
+        if (include.contains("workspaces")) {
+            w.name("workspaces").beginArray();
+            for (String wks: tEnv.getWorkspaces()) {
+                try {
+                    writeItem(w, tEnv.getWorkspace(wks));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            w.endArray();
+        }
+
+        w.endObject();
+        w.flush();
+    }
+
+    protected void writeItem(JsonWriter w, Object item) {
+        gson.toJson(item, item.getClass(), w);
+    }
+}
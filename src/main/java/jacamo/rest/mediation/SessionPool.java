@@ -0,0 +1,201 @@
+package jacamo.rest.mediation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cartago.AgentIdCredential;
+import cartago.CartagoContext;
+import cartago.CartagoException;
+import cartago.CartagoService;
+import cartago.WorkspaceId;
+
+/**
+ * CArtAgO sessions used by the REST API to act on the artifacts of the workspaces.
+ *
+ * Each workspace has up to <i>size</i> sessions, created when needed: a request uses the
+ * least busy session, a new one is created only when all are busy. Sessions not used
+ * for <i>idleTime</i> ms are closed by a background task (not by the requests). Sessions of
+ * a workspace are created one at a time, so concurrent first requests do not create duplicated
+ * sessions, and each one has a new name (restapi_wks, restapi_wks_1, restapi_wks_2, ...).
+ */
+public class SessionPool {
+
+    /** an action done with a session of the pool */
+    public interface SessionTask<T> {
+        T run(CartagoContext ctxt, WorkspaceId wid) throws CartagoException;
+    }
+
+    protected static class Session {
+        final String         name;
+        final CartagoContext ctxt;
+        final WorkspaceId    wid;
+        final AtomicInteger  busy = new AtomicInteger(); // tasks using the session, -1 when closed
+        volatile long        lastUsed = System.currentTimeMillis();
+
+        Session(String name, CartagoContext ctxt, WorkspaceId wid) {
+            this.name = name;
+            this.ctxt = ctxt;
+            this.wid  = wid;
+        }
+    }
+
+    protected final int  size;
+    protected final long idleTime;
+
+    protected final Map<String, List<Session>> sessions = new ConcurrentHashMap<>(); // workspace -> sessions
+    protected final Map<String, AtomicInteger> names    = new ConcurrentHashMap<>(); // workspace -> sessions created (for their names)
+    protected final ScheduledExecutorService   eviction;
+
+    protected final AtomicLong created = new AtomicLong();
+    protected final AtomicLong evicted = new AtomicLong();
+    protected final AtomicLong tasks   = new AtomicLong();
+
+    /**
+     * @param size     max number of sessions by workspace
+     * @param idleTime time (ms) after which a session not used is closed (0 to keep all sessions)
+     */
+    public SessionPool(int size, long idleTime) {
+        this.size     = Math.max(1, size);
+        this.idleTime = idleTime;
+        if (idleTime > 0) {
+            eviction = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "jcm-sessions");
+                t.setDaemon(true);
+                return t;
+            });
+            eviction.scheduleWithFixedDelay(this::evictIdle, 1000, 1000, TimeUnit.MILLISECONDS);
+        } else {
+            eviction = null;
+        }
+    }
+
+    /** runs the task with a session of the workspace */
+    public <T> T run(String wrksName, SessionTask<T> task) throws CartagoException {
+        Session s = acquire(wrksName);
+        try {
+            tasks.incrementAndGet();
+            return task.run(s.ctxt, s.wid);
+        } finally {
+            s.lastUsed = System.currentTimeMillis();
+            s.busy.decrementAndGet();
+        }
+    }
+
+    protected Session acquire(String wrksName) throws CartagoException {
+        List<Session> ss = sessions.computeIfAbsent(wrksName, k -> new CopyOnWriteArrayList<>());
+        while (true) {
+            Session s = leastBusy(ss);
+            if (s == null || (s.busy.get() > 0 && ss.size() < size)) {
+                synchronized (ss) {
+                    s = leastBusy(ss);
+                    if (s == null || (s.busy.get() > 0 && ss.size() < size)) {
+                        s = create(wrksName, names.computeIfAbsent(wrksName, k -> new AtomicInteger()).getAndIncrement());
+                        ss.add(s);
+                    }
+                }
+            }
+            if (use(s))
+                return s;
+            // closed meanwhile, try again
+        }
+    }
+
+    /** marks the session as used by one more task, false if it was closed */
+    protected boolean use(Session s) {
+        int b;
+        do {
+            b = s.busy.get();
+            if (b < 0)
+                return false;
+        } while (!s.busy.compareAndSet(b, b+1));
+        return true;
+    }
+
+    protected Session leastBusy(List<Session> ss) {
+        Session r = null;
+        for (Session s: ss)
+            if (s.busy.get() >= 0 && (r == null || s.busy.get() < r.busy.get()))
+                r = s;
+        return r;
+    }
+
+    protected Session create(String wrksName, int i) throws CartagoException {
+        String name = i == 0 ? "restapi_"+wrksName : "restapi_"+wrksName+"_"+i;
+        CartagoContext ctxt = CartagoService.startSession(wrksName, new AgentIdCredential(name));
+        ctxt.joinWorkspace(wrksName);
+        created.incrementAndGet();
+        return new Session(name, ctxt, ctxt.getJoinedWspId(wrksName));
+    }
+
+    /**
+     * closes the sessions not used for idleTime (run every second by the eviction task),
+     * sessions are closed out of the lock of the workspace
+     */
+    protected void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Session> idle = new ArrayList<>();
+        for (List<Session> ss: sessions.values()) {
+            synchronized (ss) {
+                for (Session s: ss) {
+                    if (now - s.lastUsed > idleTime && s.busy.compareAndSet(0, -1)) {
+                        ss.remove(s);
+                        idle.add(s);
+                    }
+                }
+            }
+        }
+        for (Session s: idle)
+            close(s);
+    }
+
+    protected void close(Session s) {
+        evicted.incrementAndGet();
+        try {
+            s.ctxt.quitWorkspace(s.wid);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** closes all sessions */
+    public void stop() {
+        if (eviction != null)
+            eviction.shutdownNow();
+        for (List<Session> ss: sessions.values()) {
+            synchronized (ss) {
+                for (Session s: ss) {
+                    ss.remove(s);
+                    close(s);
+                }
+            }
+        }
+        sessions.clear();
+        names.clear();
+    }
+
+    public Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        int open = 0, busy = 0;
+        for (List<Session> ss: sessions.values()) {
+            open += ss.size();
+            for (Session s: ss)
+                busy += Math.max(0, s.busy.get());
+        }
+        m.put("maxByWorkspace", size);
+        m.put("open", open);
+        m.put("busy", busy);
+        m.put("created", created.get());
+        m.put("evicted", evicted.get());
+        m.put("tasks", tasks.get());
+        return m;
+    }
+}
@@ -1,33 +1,38 @@
 package jacamo.rest.mediation;
 
 import java.io.StringReader;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
 import java.util.logging.LogRecord;
-import java.util.logging.StreamHandler;
 
 import org.apache.tools.ant.filters.StringInputStream;
 
-import cartago.ArtifactId;
-import cartago.ArtifactInfo;
 import cartago.CartagoException;
-import cartago.CartagoService;
 import cartago.WorkspaceId;
 import jaca.CAgentArch;
+import jacamo.rest.AgentIndex;
 import jacamo.rest.JCMRest;
+import jacamo.rest.JCMRuntimeServices;
 import jacamo.rest.config.RestAgArch;
+import jacamo.rest.data.AgentDetails;
+import jacamo.rest.util.LogBuffer;
 import jacamo.rest.util.Message;
 import jason.JasonException;
 import jason.ReceiverNotFoundException;
@@ -39,26 +44,41 @@ import jason.asSemantics.Intention;
 import jason.asSemantics.Option;
 import jason.asSemantics.TransitionSystem;
 import jason.asSemantics.Unifier;
-import jason.asSyntax.ASSyntax;
 import jason.asSyntax.Literal;
+import jason.asSyntax.LiteralImpl;
 import jason.asSyntax.Plan;
 import jason.asSyntax.PlanBody;
 import jason.asSyntax.PlanLibrary;
 import jason.asSyntax.Trigger;
+import jason.asSyntax.Trigger.TEOperator;
+import jason.asSyntax.Trigger.TEType;
 import jason.asSyntax.VarTerm;
-import jason.asSyntax.parser.ParseException;
 import jason.asSyntax.parser.TokenMgrError;
+import jason.bb.BeliefBase;
 import jason.infra.centralised.BaseCentralisedMAS;
 import jason.infra.centralised.CentralisedAgArch;
+import jason.runtime.RuntimeServices;
 import jason.runtime.RuntimeServicesFactory;
-import ora4mas.nopl.GroupBoard;
 import ora4mas.nopl.SchemeBoard;
 import ora4mas.nopl.oe.Group;
 
 public class TranslAg {
 
-    Map<String, StringBuilder> agLog = new HashMap<>();
-    Executor executor = Executors.newFixedThreadPool(4);
+    Map<String, LogBuffer> agLog = new ConcurrentHashMap<>();
+
+    static final Trigger cmdTrigger = new Trigger(TEOperator.add, TEType.achieve, new LiteralImpl("run_repl_expr"));
+
+    // shared by all commands of the JVM
+    private static Semaphore    cmdPermits = null;
+    private static CommandCache cmdCache   = null;
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "jcm-cmd-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        timer.setRemoveOnCancelPolicy(true);
+    }
 
     /**
      * Get existing agents  
@@ -66,9 +86,9 @@ public class TranslAg {
      * @return Set of agents;
      */
     public Map<String,Map<String,String>> getAgents() {
-        // read all data from ZK
+        // read all data from the WP (kept in memory, updated by ZK)
         try {
-            return JCMRest.getWP();            
+            return JCMRest.getWhitePages().getAll();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -107,7 +127,7 @@ public class TranslAg {
     }
     
     /**
-     * ask to agent to run a command
+     * ask to agent to run a command (waiting for the result)
      *  
      * @param cmd
      * @param agName
@@ -116,26 +136,182 @@ public class TranslAg {
      * @throws Exception
      */
     public Map<String, String> executeCommand(String cmd, String agName) throws TokenMgrError, Exception {
+        try {
+            return executeCommandAsync(cmd, agName, JCMRest.getCommandTimeout()).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * ask to agent to run a command, no thread waits for the command to finish.
+     * 
+     * The result is completed when the intention of the command finishes, or exceptionally
+     * with a TimeoutException. If the result is cancelled or times out, the intention is dropped.
+     * 
+     * @param cmd
+     * @param agName
+     * @param timeout in milliseconds (0 for no timeout)
+     * @return the values of the variables of the command
+     * @throws RejectedExecutionException if there are too many commands running (see --cmdLimit)
+     * @throws TokenMgrError
+     * @throws Exception
+     */
+    public CompletableFuture<Map<String, String>> executeCommandAsync(String cmd, String agName, long timeout) throws TokenMgrError, Exception {
         Agent ag = getAgent(agName);
         if (ag == null) {
             throw new Exception("Receiver '" + agName + "' not found");
         }
         createAgLog(agName, ag);
 
-        cmd = cmd.trim();
-        if (cmd.endsWith("."))
-            cmd = cmd.substring(0, cmd.length() - 1);
+        String fcmd = CommandCache.normalise(cmd);
+        PlanBody body = getCommandCache().get(fcmd);
 
-        Unifier u = execCmd(ag, ASSyntax.parsePlanBody(cmd));
-        addAgLog(agName, "Command " + cmd + ": " + u);
+        Semaphore permits = getCommandPermits();
+        if (!permits.tryAcquire())
+            throw new RejectedExecutionException("Too many commands running, try again later");
 
-        Map<String, String> um = new HashMap<>();
-        for (VarTerm v : u) {
-            um.put(v.toString(), u.get(v).toString());
+        CompletableFuture<Map<String, String>> r = new CompletableFuture<>();
+        r.whenComplete((um, ex) -> permits.release());
+
+        CompletableFuture<Unifier> f;
+        try {
+            f = execCmdAsync(ag, body);
+        } catch (Exception e) {
+            r.completeExceptionally(e);
+            return r;
+        }
+        f.whenComplete((u, ex) -> {
+            if (ex != null) {
+                r.completeExceptionally(ex);
+            } else {
+                addAgLog(agName, "Command " + fcmd + ": " + u);
+                Map<String, String> um = new HashMap<>();
+                if (u != null)
+                    for (VarTerm v : u)
+                        um.put(v.toString(), u.get(v).toString());
+                r.complete(um);
+            }
+        });
+        // timeout or cancellation of the result stops the command
+        r.whenComplete((um, ex) -> {
+            if (ex != null)
+                f.cancel(false);
+        });
+
+        if (timeout > 0 && !r.isDone()) {
+            ScheduledFuture<?> t = timer.schedule(
+                    () -> r.completeExceptionally(new TimeoutException("Command " + fcmd + " not finished in " + timeout + " ms")),
+                    timeout, TimeUnit.MILLISECONDS);
+            r.whenComplete((um, ex) -> t.cancel(false));
         }
-        return um;
+        return r;
     }
-    
+
+    /** receives the results of the commands of a batch, as they finish */
+    public interface BatchCallback {
+        /**
+         * called once for each command (result is null if error is not)
+         * @return false to not start more commands of the batch
+         */
+        boolean commandFinished(int index, Map<String, String> result, Throwable error);
+    }
+
+    /**
+     * ask to agents to run a batch of commands, at most <i>parallelism</i> commands
+     * of the batch run at the same time (each as in executeCommandAsync). When all permits of
+     * --cmdLimit are in use, a command waits (at most its timeout) for a permit instead of failing.
+     * 
+     * @param cmds        list of (agent name, command)
+     * @param parallelism
+     * @param timeout     of each command (ms)
+     * @param cb          receives the result of every command
+     * @return completed when all commands have finished
+     */
+    public CompletableFuture<Void> executeCommands(List<String[]> cmds, int parallelism, long timeout, BatchCallback cb) {
+        CompletableFuture<Void> all = new CompletableFuture<>();
+        if (cmds.isEmpty()) {
+            all.complete(null);
+            return all;
+        }
+        AtomicInteger next    = new AtomicInteger(); // index of the next command to start
+        int           workers = Math.max(1, Math.min(Math.min(parallelism, JCMRest.getCommandLimit()), cmds.size()));
+        AtomicInteger active  = new AtomicInteger(workers);
+
+        // each worker runs one command at a time, the batch is finished when all workers have nothing to do
+        Runnable worker = new Runnable() {
+            public void run() {
+                while (true) {
+                    int idx = next.getAndIncrement();
+                    if (idx >= cmds.size()) {
+                        if (active.decrementAndGet() == 0)
+                            all.complete(null);
+                        return;
+                    }
+                    if (start(idx, System.currentTimeMillis()))
+                        return;
+                }
+            }
+
+            /** starts the command, returns false if it has already finished (not started) */
+            boolean start(int idx, long since) {
+                CompletableFuture<Map<String, String>> f;
+                try {
+                    f = executeCommandAsync(cmds.get(idx)[1], cmds.get(idx)[0], timeout);
+                } catch (RejectedExecutionException e) {
+                    if (timeout <= 0 || System.currentTimeMillis() - since < timeout) {
+                        // all --cmdLimit permits are used by other requests: the command waits for one
+                        timer.schedule(() -> {
+                            if (!start(idx, since))
+                                run();
+                        }, 10, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+                    finished(idx, null, e);
+                    return false;
+                } catch (Throwable e) {
+                    finished(idx, null, e);
+                    return false;
+                }
+                f.whenComplete((r, ex) -> {
+                    finished(idx, r, ex);
+                    run();
+                });
+                return true;
+            }
+            void finished(int idx, Map<String, String> r, Throwable ex) {
+                if (!cb.commandFinished(idx, r, ex))
+                    next.set(cmds.size()); // do not start more commands
+            }
+        };
+        for (int w = 0; w < workers; w++)
+            worker.run();
+        return all;
+    }
+
+    private static synchronized CommandCache getCommandCache() {
+        if (cmdCache == null)
+            cmdCache = new CommandCache(JCMRest.getCommandCacheSize());
+        return cmdCache;
+    }
+
+    private static synchronized Semaphore getCommandPermits() {
+        if (cmdPermits == null)
+            cmdPermits = new Semaphore(JCMRest.getCommandLimit());
+        return cmdPermits;
+    }
+
+    public static Map<String,Object> getCommandMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("limit", JCMRest.getCommandLimit());
+        m.put("running", JCMRest.getCommandLimit() - getCommandPermits().availablePermits());
+        m.put("timeout", JCMRest.getCommandTimeout());
+        m.put("cache", getCommandCache().getMetrics());
+        return m;
+    }
+
     /**
      * Creates a log area for an agent
      * 
@@ -144,15 +320,20 @@ public class TranslAg {
      */
     public void createAgLog(String agName, Agent ag) {
         // adds a log for the agent
-        if (agLog.get(agName) == null) {
-            agLog.put(agName, new StringBuilder());
-            ag.getTS().getLogger().addHandler(new StreamHandler() {
+        agLog.computeIfAbsent(agName, k -> {
+            LogBuffer log = new LogBuffer(JCMRest.getLogCapacity());
+            ag.getTS().getLogger().addHandler(new Handler() {
                 @Override
                 public void publish(LogRecord l) {
-                    addAgLog(agName, l.getMessage());
+                    log.add(l.getLevel(), l.getMessage());
                 }
+                @Override
+                public void flush() {}
+                @Override
+                public void close() {}
             });
-        }
+            return log;
+        });
     }
     
     /**
@@ -162,15 +343,7 @@ public class TranslAg {
      * @param msg    message to be added
      */
     protected void addAgLog(String agName, String msg) {
-        StringBuilder o = agLog.get(agName);
-        if (o == null) {
-            o = new StringBuilder();
-            agLog.put(agName, o);
-        } else {
-            o.append("\n");
-        }
-        String dt = new SimpleDateFormat("dd-MM-yy HH:mm:ss").format(new Date());
-        o.append("[" + dt + "] " + msg);
+        agLog.computeIfAbsent(agName, k -> new LogBuffer(JCMRest.getLogCapacity())).add(Level.INFO, msg);
     }
     
     /**
@@ -260,11 +433,39 @@ public class TranslAg {
      * Get agent information (namespaces, roles, missions and workspaces)
      * 
      * @param agName name of the agent
-     * @return A Map with agent information
+     * @return agent information
      * @throws CartagoException
      * 
      */
-    public Map<String, Object> getAgentDetails(String agName) throws Exception {
+    public AgentDetails getAgentDetails(String agName) throws Exception {
+        AgentIndex index = JCMRest.getAgentIndex();
+        index.refresh();
+        return getAgentDetails(agName, index);
+    }
+
+    /**
+     * Get the version of the beliefs of an agent: it changes when beliefs are added or removed.
+     * 
+     * The version is known only for agents with a VersionedBB (installed by RestAgArch).
+     * 
+     * @param ag the agent
+     * @return the version of the belief base or -1 if it is not known
+     */
+    public long getBeliefsVersion(Agent ag) {
+        BeliefBase bb = ag.getBB();
+        if (bb instanceof VersionedBB)
+            return ((VersionedBB)bb).getVersion();
+        return -1;
+    }
+
+    /**
+     * Get agent information (as getAgentDetails(agName)) using an index already refreshed
+     * 
+     * @param agName name of the agent
+     * @param index  roles, missions and artifacts of the agents
+     * @return agent information
+     */
+    public AgentDetails getAgentDetails(String agName, AgentIndex index) throws Exception {
 
         Agent ag = getAgent(agName);
         if (ag == null) {
@@ -283,164 +484,74 @@ public class TranslAg {
             nameSpaces.add(x.toString());
         });
 
+        // roles, missions and artifacts come from the index (updated by CArtAgO events)
         // get groups and roles this agent plays
-        List<Object> roles = new ArrayList<>();
-        for (GroupBoard gb : GroupBoard.getGroupBoards()) {
-            if (workspacesIn.contains(gb.getOEId())) {
-                gb.getGrpState().getPlayers().forEach(p -> {
-                    if (p.getAg().equals(agName)) {
-                        Map<String, Object> groupRole = new HashMap<>();
-                        groupRole.put("group", gb.getArtId());
-                        groupRole.put("role", p.getTarget());
-                        roles.add(groupRole);
-                    }
-                });
-
+        List<AgentDetails.Role> roles = new ArrayList<>();
+        for (AgentIndex.Play p : index.getRoles(agName)) {
+            if (workspacesIn.contains(p.getOE())) {
+                roles.add(new AgentDetails.Role(p.getBoard(), p.getTarget()));
             }
         }
 
         // get schemed this agent belongs
-        List<Object> missions = new ArrayList<>();
-        for (SchemeBoard schb : SchemeBoard.getSchemeBoards()) {
-            schb.getSchState().getPlayers().forEach(p -> {
-                if (p.getAg().equals(agName)) {
-                    Map<String, Object> schemeMission = new HashMap<>();
-                    schemeMission.put("scheme", schb.getArtId());
-                    schemeMission.put("mission", p.getTarget());
-                    List<Object> responsibles = new ArrayList<>();
-                    schemeMission.put("responsibles", responsibles);
-                    for (Group gb : schb.getSchState().getGroupsResponsibleFor()) {
-                        responsibles.add(gb.getId());
-                    }
-                    missions.add(schemeMission);
+        List<AgentDetails.Mission> missions = new ArrayList<>();
+        for (AgentIndex.Play p : index.getMissions(agName)) {
+            List<String> responsibles = new ArrayList<>();
+            SchemeBoard schb = index.getSchemeBoard(p.getOE(), p.getBoard());
+            if (schb != null) {
+                for (Group gb : schb.getSchState().getGroupsResponsibleFor()) {
+                    responsibles.add(gb.getId());
                 }
-            });
+            }
+            missions.add(new AgentDetails.Mission(p.getBoard(), p.getTarget(), responsibles));
         }
 
-        List<Object> workspaces = new ArrayList<>();
-        workspacesIn.forEach(wksName -> {
-            Map<String, Object> workspace = new HashMap<>();
-            workspace.put("workspace", wksName);
-            List<Object> artifacts = new ArrayList<>();
-            try {
-                for (ArtifactId aid : CartagoService.getController(wksName).getCurrentArtifacts()) {
-                    ArtifactInfo info = CartagoService.getController(wksName).getArtifactInfo(aid.getName());
-                    info.getObservers().forEach(y -> {
-                        if (y.getAgentId().getAgentName().equals(agName)) {
-                            // Build returning object
-                            Map<String, Object> artifact = new HashMap<String, Object>();
-                            artifact.put("artifact", info.getId().getName());
-                            artifact.put("type", info.getId().getArtifactType());
-                            artifacts.add(artifact);
-                        }
-                    });
-                }
-                workspace.put("artifacts", artifacts);
-                workspaces.add(workspace);
-            } catch (CartagoException e) {
-                e.printStackTrace();
-            }
-        });
+        Map<String, List<AgentDetails.Artifact>> artifactsByWks = new HashMap<>();
+        for (AgentIndex.Observed o : index.getObserved(agName)) {
+            artifactsByWks.computeIfAbsent(o.getWorkspace(), k -> new ArrayList<>()).add(new AgentDetails.Artifact(o.getArtifact(), o.getType()));
+        }
+        List<AgentDetails.Workspace> workspaces = new ArrayList<>();
+        for (String wksName: workspacesIn) {
+            workspaces.add(new AgentDetails.Workspace(wksName, artifactsByWks.getOrDefault(wksName, Collections.emptyList())));
+        }
         
         List<String> beliefs = getAgentsBB(agName);
 
-        Map<String, Object> agent = new HashMap<>();
-        agent.put("agent", agName);
-        agent.put("namespaces", nameSpaces);
-        agent.put("roles", roles);
-        agent.put("missions", missions);
-        agent.put("workspaces", workspaces);
-        agent.put("beliefs", beliefs);
-
-        return agent;
+        return new AgentDetails(agName, nameSpaces, roles, missions, workspaces, beliefs);
     }
 
     /**
-     * Send a command to an agent
+     * Starts the execution of a command by an agent (as a new intention)
      * 
-     * @param agName name of the agent
-     * @param sCmd   command to be executed
-     * @return Status message
-     * @throws ParseException 
+     * @param ag   the agent
+     * @param lCmd command to be executed
+     * @return the unifier of the command, completed when its intention is dropped (finished or failed).
+     *         Cancelling it drops the intention.
      */
-    @SuppressWarnings("serial")
-    Unifier execCmd(Agent ag, PlanBody lCmd) throws ParseException {
-        Trigger te = ASSyntax.parseTrigger("+!run_repl_expr");
+    CompletableFuture<Unifier> execCmdAsync(Agent ag, PlanBody lCmd) {
+        Trigger te = cmdTrigger.clone();
         Intention i = new Intention();
         IntendedMeans im = new IntendedMeans(new Option(new Plan(null, te, null, lCmd), new Unifier()), te);
         i.push(im);
 
-        Lock lock = new ReentrantLock();
-        Condition goalFinished  = lock.newCondition();
-        executor.execute( () -> {
-                /*GoalListener gl = new GoalListener() {                 
-                    public void goalSuspended(Trigger goal, String reason) {}
-                    public void goalStarted(Event goal) {}
-                    public void goalResumed(Trigger goal) {}
-                    public void goalFinished(Trigger goal, FinishStates result) {
-                        System.out.println("finished!");
-                        if (goal.equals(te)) {
-                            // finished
-                            //if (result.equals(FinishStates.achieved)) {
-                            //}                           
-                            try {
-                                lock.lock();
-                                goalFinished.signalAll();
-                            } finally {
-                                lock.unlock();
-                            }
-                        }                       
-                    }
-                    public void goalFailed(Trigger goal) {
-                        if (goal.equals(te)) {
-                            try {
-                                lock.lock();
-                                goalFinished.signalAll();
-                            } finally {
-                                lock.unlock();
-                            }
-                        }                                                   
-                    }
-                };*/
-                CircumstanceListener cl = new CircumstanceListener() {
-                    public void intentionDropped(Intention ci) {
-                        //System.out.println("*finished!"+ci);
-                        if (ci.equals(i)) {
-                            try {
-                                lock.lock();
-                                goalFinished.signalAll();
-                            } finally {
-                                lock.unlock();
-                            }
-                        }
-                    };
-
-                };
-                TransitionSystem ts = ag.getTS();
-                try {
-                    lock.lock();
-                    //ts.addGoalListener(gl);
-                    ts.getC().addEventListener(cl);
-                    ts.getC().addRunningIntention(i);
-                    ts.getAgArch().wake();
-                    goalFinished.await();
-                    //ts.removeGoalListener(gl);
-                    ts.getC().removeEventListener(cl);
-                } catch (InterruptedException e) {                          
-                } finally {
-                    lock.unlock();
-                }                
+        CompletableFuture<Unifier> f = new CompletableFuture<>();
+        TransitionSystem ts = ag.getTS();
+        CircumstanceListener cl = new CircumstanceListener() {
+            public void intentionDropped(Intention ci) {
+                if (ci.equals(i))
+                    f.complete(im.getUnif());
+            };
+        };
+        f.whenComplete((u, ex) -> {
+            ts.getC().removeEventListener(cl);
+            if (ex != null) // cancelled, time out, ...
+                ts.getC().dropIntention(i);
         });
-        try {
-            lock.lock();
-            goalFinished.await();
-            
-            return im.getUnif();
-        } catch (InterruptedException e) {
-        } finally {
-            lock.unlock();
-        }
-        return null;
+
+        ts.getC().addEventListener(cl);
+        ts.getC().addRunningIntention(i);
+        ts.getAgArch().wake();
+        return f;
     }
     
     /**
@@ -450,12 +561,39 @@ public class TranslAg {
      * @throws Exception
      */
     public String getAgentLog(String agName) {
-        if (agLog.containsKey(agName)) {
-            return agLog.get(agName).toString();
+        LogBuffer log = agLog.get(agName);
+        if (log != null) {
+            return LogBuffer.toText(log.get(0, log.getCapacity()));
         } else {
             return "Log is empty/absent.";
         }
     }
+
+    /**
+     * get the log of an agent (null if the agent has no log)
+     * 
+     * @param agName
+     */
+    public LogBuffer getAgentLogBuffer(String agName) {
+        return agLog.get(agName);
+    }
+
+    /**
+     * get the log of an agent, creating it if necessary (null if the agent does not exist)
+     * 
+     * @param agName
+     */
+    public LogBuffer getOrCreateAgentLogBuffer(String agName) {
+        LogBuffer log = agLog.get(agName);
+        if (log == null) {
+            Agent ag = getAgent(agName);
+            if (ag == null)
+                return null;
+            createAgLog(agName, ag);
+            log = agLog.get(agName);
+        }
+        return log;
+    }
     
     /**
      * Return agent object by agent's name
@@ -496,9 +634,16 @@ public class TranslAg {
      * @throws Exception
      */
     public void addMessageToAgentMailbox(Message m, String agName) throws Exception {
+        addMessageToAgentMailbox(m.getAsJasonMsg(), agName);
+    }
+
+    /**
+     * Adds a Jason message (e.g., decoded by the MessageCodec) to the agent's mailbox
+     */
+    public void addMessageToAgentMailbox(jason.asSemantics.Message m, String agName) throws Exception {
         CentralisedAgArch a = BaseCentralisedMAS.getRunner().getAg(agName);
         if (a != null) {
-            a.receiveMsg(m.getAsJasonMsg());
+            a.receiveMsg(m);
         } else {
             throw new Exception("Internal Server Error! Receiver '" + agName + "' not found");
         }
@@ -514,6 +659,21 @@ public class TranslAg {
         return RuntimeServicesFactory.get().getDF();
     }
 
+    /**
+     * Returns services provided by an agent
+     * 
+     * @param agName
+     * @return
+     * @throws Exception
+     */
+    public Set<String> getAgentServices(String agName) throws Exception {
+        RuntimeServices rs = RuntimeServicesFactory.get();
+        if (rs instanceof JCMRuntimeServices)
+            return ((JCMRuntimeServices)rs).getAgentServices(agName);
+        else
+            return rs.getDF().get(agName);
+    }
+
     /**
      * Return content of getCommonDF but ready to send to the client (in Json format)
      * 
@@ -523,15 +683,13 @@ public class TranslAg {
     public Map<String, Object> getJsonifiedDF() throws Exception {
         Map<String, Set<String>> commonDF = getCommonDF();
 
-        // Json of the DF
+        // Json of the DF (the sets of services are not changed by the DF, no need to copy them)
         Map<String,Object> jsonifiedDF = new HashMap<>();
-        for (String s : commonDF.keySet()) {
+        for (Map.Entry<String, Set<String>> s : commonDF.entrySet()) {
             Map<String, Object> agent = new HashMap<>();
-            agent.put("agent", s);
-            Set<String> services = new HashSet<>();
-            services.addAll(commonDF.get(s));
-            agent.put("services", services);
-            jsonifiedDF.put(s,agent);
+            agent.put("agent", s.getKey());
+            agent.put("services", s.getValue());
+            jsonifiedDF.put(s.getKey(),agent);
         }
         return jsonifiedDF;
     }
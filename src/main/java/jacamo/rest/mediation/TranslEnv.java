@@ -7,20 +7,32 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
-import cartago.AgentIdCredential;
 import cartago.ArtifactId;
 import cartago.ArtifactInfo;
 import cartago.ArtifactObsProperty;
-import cartago.CartagoContext;
 import cartago.CartagoException;
 import cartago.CartagoService;
 import cartago.Op;
-import cartago.WorkspaceId;
 import jacamo.platform.EnvironmentWebInspector;
+import jacamo.rest.ArtifactIdCache;
+import jacamo.rest.JCMRest;
+import jacamo.rest.OperationTracker;
+import jacamo.rest.data.ArtifactView;
+import jacamo.rest.data.WorkspaceView;
 
 public class TranslEnv {
 
+    // threads where the API waits for the actions on artifacts (shared by all operations of the JVM)
+    private static final ExecutorService opExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "jcm-artifact-op");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
      * Get list of workspaces in JSON format.
      * 
@@ -37,22 +49,15 @@ public class TranslEnv {
      * including their properties, operations, observers and linked artifacts
      * 
      * @param wrksName name of the workspace
-     * @return A map with workspace details
+     * @return workspace details
      * @throws CartagoException
      */
-    public Map<String, Object> getWorkspace(String wrksName) throws CartagoException {
-
-        Map<String, Object> workspace = new HashMap<String, Object>();
-
-        Map<String, Object> artifacts = new HashMap<>();
+    public WorkspaceView getWorkspace(String wrksName) throws CartagoException {
+        Map<String, ArtifactView> artifacts = new HashMap<>();
         for (ArtifactId aid : CartagoService.getController(wrksName).getCurrentArtifacts()) {
             artifacts.put(aid.getName(), getArtifact(wrksName, aid.getName()));
         }
-
-        workspace.put("workspace", wrksName);
-        workspace.put("artifacts", artifacts);
-
-        return workspace;
+        return new WorkspaceView(wrksName, artifacts);
     }
 
     /**
@@ -60,20 +65,18 @@ public class TranslEnv {
      * including their properties, operations, observers and linked artifacts
      * 
      * @param wrksName name of the workspace
-     * @return A map with workspace details
+     * @return artifact details
      * @throws CartagoException
      */
-    public Map<String, Object> getArtifact(String wrksName, String artName) throws CartagoException {
+    public ArtifactView getArtifact(String wrksName, String artName) throws CartagoException {
 
         ArtifactInfo info = CartagoService.getController(wrksName).getArtifactInfo(artName);
 
         // Get artifact's properties
-        List<Object> properties = new ArrayList<>();
+        List<ArtifactView.Property> properties = new ArrayList<>();
         for (ArtifactObsProperty op : info.getObsProperties()) {
             for (Object vl : op.getValues()) {
-                Map<String, Object> property = new HashMap<String, Object>();
-                property.put(op.getName(), vl);
-                properties.add(property);
+                properties.add(new ArtifactView.Property(op.getName(), vl));
             }
         }
 
@@ -84,7 +87,7 @@ public class TranslEnv {
         });
 
         // Get agents that are observing the artifact
-        Set<Object> observers = new HashSet<>();
+        Set<String> observers = new HashSet<>();
         info.getObservers().forEach(y -> {
             // do not print agents_body observation
             if (!info.getId().getArtifactType().equals("cartago.AgentBodyArtifact")) {
@@ -93,26 +96,32 @@ public class TranslEnv {
         });
 
         // linked artifacts
-        Set<Object> linkedArtifacts = new HashSet<>();
+        Set<String> linkedArtifacts = new HashSet<>();
         info.getLinkedArtifacts().forEach(y -> {
             // linked artifact node already exists if it belongs to this workspace
             linkedArtifacts.add(y.getName());
         });
 
-        // Build returning object
-        Map<String, Object> artifact = new HashMap<String, Object>();
-        artifact.put("artifact", artName);
-        artifact.put("type", info.getId().getArtifactType());
-        artifact.put("properties", properties);
-        artifact.put("operations", operations);
-        artifact.put("observers", observers);
-        artifact.put("linkedArtifacts", linkedArtifacts);
-
-        return artifact;
+        return new ArtifactView(artName, info.getId().getArtifactType(), properties, operations, observers, linkedArtifacts);
     }
     
+    /** whether the workspace exists in this node */
+    public boolean hasWorkspace(String wrksName) {
+        return CartagoService.getNode().getWorkspaces().contains(wrksName);
+    }
+
+    /** whether the artifact exists in the workspace */
+    public boolean hasArtifact(String wrksName, String artName) throws CartagoException {
+        if (!hasWorkspace(wrksName))
+            return false;
+        for (ArtifactId aid : CartagoService.getController(wrksName).getCurrentArtifacts())
+            if (aid.getName().equals(artName))
+                return true;
+        return false;
+    }
+
     public void createWorkspace(String wrksName) throws CartagoException {
-        if (!CartagoService.getNode().getWorkspaces().contains(wrksName)) {
+        if (!hasWorkspace(wrksName)) {
             CartagoService.createWorkspace(wrksName);
             if (EnvironmentWebInspector.get() != null)
                 EnvironmentWebInspector.get().registerWorkspace(wrksName);
@@ -122,7 +131,7 @@ public class TranslEnv {
     }
     
     public void createArtefact(String wrksName, String artName, String javaClass, Object[] values) throws CartagoException {
-        getContext(wrksName).makeArtifact(getWId(wrksName), artName, javaClass, values);
+        JCMRest.getSessionPool().run(wrksName, (ctxt, wid) -> ctxt.makeArtifact(wid, artName, javaClass, values));
     }
     
     
@@ -136,29 +145,61 @@ public class TranslEnv {
         return null;
     }
 
-    Map<String, CartagoContext> contexts = new HashMap<>();
+    /**
+     * Get the observable properties of an artifact
+     * 
+     * @throws CartagoException if the artifact does not exist
+     */
+    public List<ArtifactObsProperty> getObsProperties(String wrksName, String artName) throws CartagoException {
+        return CartagoService.getController(wrksName).getArtifactInfo(artName).getObsProperties();
+    }
 
     public void execOp(String wrksName, String artName, String operation, Object[] values) throws CartagoException {
-        CartagoContext ctxt = getContext(wrksName);
-        ArtifactId aid = ctxt.lookupArtifact(getWId(wrksName), artName);
-        if (aid == null) {
-            throw new CartagoException("artifact "+artName+" not found");
-        }
-        ctxt.doAction(aid, new Op(operation, values));
+        execOp(wrksName, artName, new Op(operation, values));
     }
-    
-    
-    protected CartagoContext getContext(String wrksName) throws CartagoException {
-        CartagoContext ctxt = contexts.get(wrksName);
-        if (ctxt == null) {
-            ctxt = CartagoService.startSession(wrksName, new AgentIdCredential("restapi_"+wrksName));
-            contexts.put(wrksName, ctxt);
-            ctxt.joinWorkspace( wrksName );
-        }
-        return ctxt;
+
+    /**
+     * Executes the operation, the id of the artifact comes from the ArtifactIdCache
+     * (a lookup is done only the first time or after the artifact is disposed/created).
+     */
+    public void execOp(String wrksName, String artName, Op op) throws CartagoException {
+        ArtifactIdCache ids = JCMRest.getArtifactIds();
+        JCMRest.getSessionPool().run(wrksName, (ctxt, wid) -> {
+            ArtifactId aid = ids.get(wrksName, artName, () -> ctxt.lookupArtifact(wid, artName));
+            if (aid == null) {
+                throw new CartagoException("artifact "+artName+" not found");
+            }
+            try {
+                ctxt.doAction(aid, op);
+            } catch (CartagoException e) {
+                ids.invalidate(wrksName, artName); // in case the id is no longer valid
+                throw e;
+            }
+            return null;
+        });
     }
-    
-    protected WorkspaceId getWId(String wrksName) throws CartagoException {
-        return getContext(wrksName).getJoinedWspId(wrksName); 
+
+    /**
+     * Starts an operation in an artifact, the caller does not wait for it.
+     * 
+     * The completion of the result gives the outcome of the operation and the values of
+     * its output parameters (see OperationTracker).
+     * 
+     * @param values  arguments of the operation
+     * @param outputs number of output parameters of the operation
+     * @throws RejectedExecutionException if there are too many operations running (see --cmdLimit)
+     */
+    public OperationTracker.Operation execOpAsync(String wrksName, String artName, String operation, Object[] values, int outputs) {
+        OperationTracker tracker = JCMRest.getOperationTracker();
+        OperationTracker.Operation o = tracker.create(wrksName, artName, operation, values, outputs);
+        opExecutor.execute(() -> {
+            try {
+                execOp(wrksName, artName, o.getOp());
+                tracker.succeeded(o); // if the opCompleted event was not received yet
+            } catch (Exception e) {
+                tracker.failed(o, e);
+            }
+        });
+        return o;
     }
 }
@@ -1,10 +1,17 @@
 package jacamo.rest.mediation;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import jacamo.rest.data.GoalView;
+import jacamo.rest.data.GroupView;
+import jacamo.rest.data.OrganisationView;
+import jacamo.rest.data.SchemeView;
 import jason.asSyntax.ASSyntax;
 import jason.asSyntax.Atom;
 import jason.asSyntax.Term;
@@ -39,190 +46,161 @@ public class TranslOrg {
         return organisations;
     }
 
+    /** whether the organisation exists (has an OrgBoard) */
+    public boolean hasOrganisation(String oeName) {
+        for (OrgBoard ob : OrgBoard.getOrbBoards())
+            if (ob.getOEId().equals(oeName))
+                return true;
+        return false;
+    }
+
     /**
-     * Get details of one organisation in JSON format, including groups, schemes and
+     * Get details of one organisation, including groups, schemes and
      * norms.
      * 
      * @param oeName name of the organisation
-     * @return A map with organisation data
+     * @return organisation data
+     */
+    public OrganisationView getSpecification(String oeName) {
+        OrgBoards boards = new OrgBoards();
+        return getSpecification(oeName, boards);
+    }
+
+    /**
+     * Boards of all organisations grouped by organisation, built in one pass
+     * so that the specification of many organisations does not scan
+     * all boards for each of them.
+     */
+    public static class OrgBoards {
+        final Map<String, List<GroupBoard>>  groups   = new HashMap<>();
+        final Map<String, List<SchemeBoard>> schemes  = new HashMap<>();
+        final Map<String, SchemeBoard>       schemeById = new HashMap<>();
+        final Map<String, OrgBoard>          orgs     = new LinkedHashMap<>();
+
+        public OrgBoards() {
+            for (GroupBoard gb : GroupBoard.getGroupBoards())
+                groups.computeIfAbsent(gb.getOEId(), k -> new ArrayList<>()).add(gb);
+            for (SchemeBoard sb : SchemeBoard.getSchemeBoards()) {
+                schemes.computeIfAbsent(sb.getOEId(), k -> new ArrayList<>()).add(sb);
+                schemeById.put(sb.getArtId(), sb);
+            }
+            for (OrgBoard ob : OrgBoard.getOrbBoards())
+                orgs.put(ob.getOEId(), ob);
+        }
+
+        public Collection<String> getOrganisations() {
+            return orgs.keySet();
+        }
+    }
+
+    /**
+     * Get details of one organisation (as getSpecification(oeName)) using boards already grouped by organisation.
+     * 
+     * @param oeName name of the organisation
+     * @param boards boards of all organisations
+     * @return organisation data
      */
-    public Map<String, Object> getSpecification(String oeName) {
-        Map<String, Object> org;
+    public OrganisationView getSpecification(String oeName, OrgBoards boards) {
         OS os = null;
-        org = new HashMap<>();
-        org.put("organisation", oeName);
 
-        List<Object> groups = new ArrayList<>();
-        org.put("groups", groups);
-        for (GroupBoard gb : GroupBoard.getGroupBoards()) {
-            if (gb.getOEId().equals(oeName)) {
-                os = gb.getSpec().getSS().getOS();
-                Map<String, Object> group = new HashMap<>();
-                groups.add(group);
-                List<Object> roles = new ArrayList<>();
-                group.put("id", gb.getArtId());
-                group.put("group", gb.getSpec().getId());
-                group.put("roles", roles);
-                group.put("isWellFormed", gb.isWellFormed());
-                for (Role r : gb.getSpec().getSS().getRolesDef()) {
-                    Map<String, Object> role = new HashMap<>();
-                    role.put("role", r.getId());
-                    List<String> superRoles = new ArrayList<>();
-                    role.put("superRoles", superRoles);
-                    for (Role e : r.getSuperRoles())
-                        superRoles.add(e.getId());
-                    role.put("cardinality", gb.getSpec().getRoleCardinality(r).toStringFormat2());
-                    roles.add(role);
-                }
-                List<String> subGroups = new ArrayList<>();
-                group.put("subGroups", subGroups);
-                for (ora4mas.nopl.oe.Group sgi : gb.getGrpState().getSubgroups()) {
-                    if (sgi.getGrType().equals(gb.getSpec().getId())) {
-                        subGroups.add(sgi.getId());
-                    }
-                }
-                List<Object> links = new ArrayList<>();
-                group.put("links", links);
-                for (Link l : gb.getSpec().getLinks()) {
-                    Map<String, Object> link = new HashMap<>();
-                    link.put("type", l.getTypeStr());
-                    link.put("isBiDir", l.isBiDir());
-                    link.put("scope", l.getScope());
-                    link.put("source", l.getSource().getId());
-                    link.put("target", l.getTarget().getId());
-                    links.add(link);
-                }
-                List<Object> compatibilities = new ArrayList<>();
-                group.put("compatibilities", compatibilities);
-                for (Compatibility c : gb.getSpec().getCompatibilities()) {
-                    Map<String, Object> compatibility = new HashMap<>();
-                    compatibility.put("isBiDir", c.isBiDir());
-                    compatibility.put("scope", c.getScope());
-                    compatibility.put("source", c.getSource().getId());
-                    compatibility.put("target", c.getTarget().getId());
-                    compatibilities.add(compatibility);
-                }
-                List<Object> players = new ArrayList<>();
-                group.put("players", players);
-                for (Player p : gb.getGrpState().getPlayers()) {
-                    Map<String, Object> player = new HashMap<>();
-                    player.put("agent", p.getAg());
-                    player.put("role", p.getTarget());
-                    players.add(player);
-                }
-                List<Object> responsibleFor = new ArrayList<>();
-                group.put("responsibleFor", responsibleFor);
-                for (String s : gb.getGrpState().getSchemesResponsibleFor()) {
-                    Map<String, Object> schemeRF = new HashMap<>();
-                    boolean wf = false;
-                    SchemeBoard sb = findSchemeBoard(s);
-                    if (sb != null)
-                        wf = sb.isWellFormed();
-                    schemeRF.put("isWellFormed", wf);
-                    schemeRF.put("scheme", s);
-                    responsibleFor.add(schemeRF);
+        List<GroupView> groups = new ArrayList<>();
+        for (GroupBoard gb : boards.groups.getOrDefault(oeName, Collections.emptyList())) {
+            os = gb.getSpec().getSS().getOS();
+            List<GroupView.Role> roles = new ArrayList<>();
+            for (Role r : gb.getSpec().getSS().getRolesDef()) {
+                List<String> superRoles = new ArrayList<>();
+                for (Role e : r.getSuperRoles())
+                    superRoles.add(e.getId());
+                roles.add(new GroupView.Role(r.getId(), superRoles, gb.getSpec().getRoleCardinality(r).toStringFormat2()));
+            }
+            List<String> subGroups = new ArrayList<>();
+            for (ora4mas.nopl.oe.Group sgi : gb.getGrpState().getSubgroups()) {
+                if (sgi.getGrType().equals(gb.getSpec().getId())) {
+                    subGroups.add(sgi.getId());
                 }
-
             }
+            List<GroupView.RoleRel> links = new ArrayList<>();
+            for (Link l : gb.getSpec().getLinks()) {
+                links.add(new GroupView.RoleRel(l.getTypeStr(), l.isBiDir(), String.valueOf(l.getScope()), l.getSource().getId(), l.getTarget().getId()));
+            }
+            List<GroupView.RoleRel> compatibilities = new ArrayList<>();
+            for (Compatibility c : gb.getSpec().getCompatibilities()) {
+                compatibilities.add(new GroupView.RoleRel(null, c.isBiDir(), String.valueOf(c.getScope()), c.getSource().getId(), c.getTarget().getId()));
+            }
+            List<GroupView.Player> players = new ArrayList<>();
+            for (Player p : gb.getGrpState().getPlayers()) {
+                players.add(new GroupView.Player(p.getAg(), p.getTarget()));
+            }
+            List<GroupView.Responsibility> responsibleFor = new ArrayList<>();
+            for (String s : gb.getGrpState().getSchemesResponsibleFor()) {
+                boolean wf = false;
+                SchemeBoard sb = boards.schemeById.get(s);
+                if (sb != null)
+                    wf = sb.isWellFormed();
+                responsibleFor.add(new GroupView.Responsibility(s, wf));
+            }
+            groups.add(new GroupView(gb.getArtId(), gb.getSpec().getId(), gb.isWellFormed(), roles, subGroups, links, compatibilities, players, responsibleFor));
         }
 
-        List<Object> schemes = new ArrayList<>();
-        org.put("schemes", schemes);
-        for (SchemeBoard sb : SchemeBoard.getSchemeBoards()) {
-            if (sb.getOEId().equals(oeName)) {
-                os = sb.getSpec().getFS().getOS();
-
-                Map<String, Object> scheme = new HashMap<>();
-                schemes.add(scheme);
-                List<Object> goals = new ArrayList<>();
-                addGoalsAInList(sb, sb.getSpec().getRoot(), null, goals);
-                scheme.put("scheme", sb.getArtId());
-                scheme.put("isWellFormed", sb.isWellFormed());
-                scheme.put("goals", goals);
-
-                List<Object> missions = new ArrayList<>();
-                scheme.put("missions", missions);
-                // missions
-                for (Mission m : sb.getSpec().getMissions()) {
-                    Map<String, Object> mission = new HashMap<>();
-                    mission.put("mission", m.getId());
-                    List<String> missionGoals = new ArrayList<>();
-                    mission.put("missionGoals", missionGoals);
-                    for (Goal g : m.getGoals()) {
-                        missionGoals.add(g.getId());
-                    }
-                    String card = "";
-                    if (! sb.getSpec().getMissionCardinality(m).equals(Cardinality.defaultValue)) {
-                        card = sb.getSpec().getMissionCardinality(m).toStringFormat2();
-                    }
-                    mission.put("cardinality", card);
-                    missions.add(mission);
-                }
+        List<SchemeView> schemes = new ArrayList<>();
+        for (SchemeBoard sb : boards.schemes.getOrDefault(oeName, Collections.emptyList())) {
+            os = sb.getSpec().getFS().getOS();
+
+            List<GoalView> goals = new ArrayList<>();
+            addGoalsAInList(sb, sb.getSpec().getRoot(), null, goals);
 
-                List<Object> players = new ArrayList<>();
-                scheme.put("players", players);
-                for (Player p : sb.getSchState().getPlayers()) {
-                    Map<String, Object> player = new HashMap<>();
-                    player.put("agent", p.getAg());
-                    player.put("mission", p.getTarget());
-                    players.add(player);
+            // missions
+            List<SchemeView.Mission> missions = new ArrayList<>();
+            for (Mission m : sb.getSpec().getMissions()) {
+                List<String> missionGoals = new ArrayList<>();
+                for (Goal g : m.getGoals()) {
+                    missionGoals.add(g.getId());
+                }
+                String card = "";
+                if (! sb.getSpec().getMissionCardinality(m).equals(Cardinality.defaultValue)) {
+                    card = sb.getSpec().getMissionCardinality(m).toStringFormat2();
                 }
+                missions.add(new SchemeView.Mission(m.getId(), missionGoals, card));
+            }
+
+            List<SchemeView.Player> players = new ArrayList<>();
+            for (Player p : sb.getSchState().getPlayers()) {
+                players.add(new SchemeView.Player(p.getAg(), p.getTarget()));
             }
+            schemes.add(new SchemeView(sb.getArtId(), sb.isWellFormed(), goals, missions, players));
         }
 
-        List<Object> norms = new ArrayList<>();
-        org.put("norms", norms);
         if (os == null) {
-            for (OrgBoard ob : OrgBoard.getOrbBoards())
-                if (ob.getOEId().equals(oeName))
-                    os = OS.loadOSFromURI(ob.getOSFile());
+            OrgBoard ob = boards.orgs.get(oeName);
+            if (ob != null)
+                os = OS.loadOSFromURI(ob.getOSFile());
         }
+        List<OrganisationView.Norm> norms = new ArrayList<>();
         for (Norm n : os.getNS().getNorms()) {
-            Map<String, Object> norm = new HashMap<>();
-            norms.add(norm);
-            norm.put("norm", n.getId());
-            norm.put("type", n.getType().name());
-            norm.put("role", n.getRole().toString());
-            norm.put("mission", n.getMission().toString());
+            norms.add(new OrganisationView.Norm(n.getId(), n.getType().name(), n.getRole().toString(), n.getMission().toString()));
         }
 
-        return org;
-
-    }
-
-    private SchemeBoard findSchemeBoard(String id) {
-        for (SchemeBoard sb : SchemeBoard.getSchemeBoards()) {
-            if (sb.getArtId().equals(id))
-                return sb;
-        }
-        return null;
+        return new OrganisationView(oeName, groups, schemes, norms);
     }
 
     /**
-     * Add goals recursively in a list of string in a format sub-goal <- parent-goal
+     * Add goals recursively in a list in a format sub-goal <- parent-goal
      * 
      * @param sb   scheme board where goals are assigned
      * @param g    usually the first given is the root goal
      * @param p    the parent of the given goal (null for root)
      * @param list a list to be recursively updated
-     * @return list of strings
+     * @return list of goals
      */
-    public List<Object> addGoalsAInList(SchemeBoard sb, Goal g, Goal p, List<Object> list) {
-        Map<String, Object> goal = new HashMap<>();
-        goal.put("goal", g.getId());
-        if (p != null)
-            goal.put("parent", p.getId());
-        else
-            goal.put("parent", "");
-        if (g.hasPlan())
-            goal.put("operation", g.getPlan().getOp());
-        else
-            goal.put("operation", "");
-        goal.put("isSatisfied", sb.getSchState().isSatisfied(g));
+    public List<GoalView> addGoalsAInList(SchemeBoard sb, Goal g, Goal p, List<GoalView> list) {
         Term tSch = ASSyntax.createString(sb.getSchState().getId());
         Atom aGoal = new Atom(g.getId());
-        goal.put("enabled", sb.getNormativeEngine().holds(ASSyntax.createLiteral("enabled", tSch, aGoal)));
-        list.add(goal);
+        list.add(new GoalView(
+                g.getId(),
+                p != null ? p.getId() : "",
+                g.hasPlan() ? String.valueOf(g.getPlan().getOp()) : "",
+                sb.getSchState().isSatisfied(g),
+                sb.getNormativeEngine().holds(ASSyntax.createLiteral("enabled", tSch, aGoal))));
         if (g.hasPlan()) {
             for (Goal sg : g.getPlan().getSubGoals()) {
                 addGoalsAInList(sb, sg, g, list);
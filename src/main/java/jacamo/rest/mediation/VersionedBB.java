@@ -0,0 +1,56 @@
+package jacamo.rest.mediation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import jason.asSyntax.Literal;
+import jason.asSyntax.PredicateIndicator;
+import jason.bb.BeliefBase;
+import jason.bb.ChainBBAdapter;
+
+/**
+ * Belief base adapter that counts the changes in the belief base of an agent,
+ * used to know whether the beliefs have changed since the last request (ETags)
+ * without listing them.
+ *
+ * It is installed in an agent by RestAgArch.init (in the thread of the agent, before its
+ * reasoning cycle starts), the beliefs are kept in the original belief base.
+ */
+public class VersionedBB extends ChainBBAdapter {
+
+    protected final AtomicLong version = new AtomicLong();
+
+    public VersionedBB(BeliefBase bb) {
+        super(bb);
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public boolean add(Literal l) {
+        boolean r = super.add(l);
+        if (r) version.incrementAndGet();
+        return r;
+    }
+
+    @Override
+    public boolean remove(Literal l) {
+        boolean r = super.remove(l);
+        if (r) version.incrementAndGet();
+        return r;
+    }
+
+    @Override
+    public boolean abolish(PredicateIndicator pi) {
+        boolean r = super.abolish(pi);
+        if (r) version.incrementAndGet();
+        return r;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        version.incrementAndGet();
+    }
+}
@@ -0,0 +1,225 @@
+package jacamo.rest.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * Server-Sent Events stream of one client, with a bounded queue.
+ *
+ * Producers (e.g. the threads of the agents) only enqueue events, they never
+ * wait for the client. Events are sent one at a time: the next one is sent
+ * when the previous send completes. If the client is slower than the producers
+ * and the queue is full, the oldest event is dropped.
+ *
+ * Events offered with a key (e.g. the name of an observable property) are coalesced:
+ * while an event with the same key is waiting in the queue, it is replaced by the new one,
+ * so the client receives only the last value.
+ *
+ * A stream without events for a while receives a heartbeat (a comment), so that a client
+ * that has left is detected (and the stream closed and its listeners removed) even when
+ * there are no events to send.
+ */
+public class EventStream {
+
+    // at most one thread by stream is busy sending
+    private static final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "jcm-sse");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // heartbeats of the idle streams
+    private static final long                     heartbeat  = 15000; // ms
+    private static final Set<EventStream>         streams    = ConcurrentHashMap.newKeySet();
+    private static final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "jcm-sse-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        heartbeats.scheduleWithFixedDelay(EventStream::beatAll, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+    }
+
+    private static final AtomicInteger open         = new AtomicInteger();
+    private static final AtomicLong    totalSent    = new AtomicLong();
+    private static final AtomicLong    totalDropped = new AtomicLong();
+    private static final AtomicLong    totalCoalesced = new AtomicLong();
+
+    /** an event waiting in the queue */
+    protected static class Pending {
+        final String     key;
+        OutboundSseEvent ev;
+
+        Pending(String key, OutboundSseEvent ev) {
+            this.key = key;
+            this.ev  = ev;
+        }
+    }
+
+    protected final SseEventSink                sink;
+    protected final OutboundSseEvent            heartbeatEvent;
+    protected final int                         capacity;
+    protected final ArrayDeque<Pending>         queue = new ArrayDeque<>();
+    protected final Map<String, Pending>        byKey = new HashMap<>();
+    protected boolean                           sending = false;
+    protected volatile boolean                  closed  = false;
+    protected Runnable                          onClose = null;
+
+    public EventStream(SseEventSink sink, Sse sse, int capacity) {
+        this.sink     = sink;
+        this.capacity = capacity;
+        this.heartbeatEvent = sse.newEventBuilder().comment("heartbeat").build();
+        open.incrementAndGet();
+        streams.add(this);
+    }
+
+    /** action to be executed when the stream is closed (e.g. to remove listeners) */
+    public void setOnClose(Runnable onClose) {
+        this.onClose = onClose;
+    }
+
+    public boolean isClosed() {
+        return closed || sink.isClosed();
+    }
+
+    /** enqueues an event to be sent, returns false if the stream is closed */
+    public boolean offer(OutboundSseEvent ev) {
+        return offer(ev, null);
+    }
+
+    /**
+     * enqueues an event to be sent, replacing the event with the same key
+     * that is still in the queue (if any); returns false if the stream is closed
+     */
+    public boolean offer(OutboundSseEvent ev, String key) {
+        if (isClosed()) {
+            close();
+            return false;
+        }
+        synchronized (this) {
+            if (key != null) {
+                Pending p = byKey.get(key);
+                if (p != null) {
+                    p.ev = ev;
+                    totalCoalesced.incrementAndGet();
+                    return true;
+                }
+            }
+            if (queue.size() >= capacity) {
+                Pending old = queue.pollFirst();
+                if (old.key != null)
+                    byKey.remove(old.key);
+                totalDropped.incrementAndGet();
+            }
+            Pending p = new Pending(key, ev);
+            queue.addLast(p);
+            if (key != null)
+                byKey.put(key, p);
+            if (sending)
+                return true;
+            sending = true;
+        }
+        senders.execute(this::drain);
+        return true;
+    }
+
+    protected void drain() {
+        while (true) {
+            OutboundSseEvent ev;
+            synchronized (this) {
+                Pending p = queue.pollFirst();
+                if (p == null || closed) {
+                    sending = false;
+                    return;
+                }
+                if (p.key != null)
+                    byKey.remove(p.key);
+                ev = p.ev;
+            }
+            CompletableFuture<?> f = sink.send(ev).toCompletableFuture();
+            if (!f.isDone()) {
+                // continue when the client has received the event
+                f.whenComplete((r, ex) -> {
+                    if (ex != null) {
+                        close();
+                    } else {
+                        totalSent.incrementAndGet();
+                        senders.execute(this::drain);
+                    }
+                });
+                return;
+            }
+            if (f.isCompletedExceptionally()) {
+                close();
+                return;
+            }
+            totalSent.incrementAndGet();
+        }
+    }
+
+    /** sends a heartbeat if the stream is idle, closes it if the client has left */
+    protected void beat() {
+        if (isClosed()) {
+            close();
+            return;
+        }
+        synchronized (this) {
+            if (sending || !queue.isEmpty())
+                return; // a send is running, its failure closes the stream
+        }
+        offer(heartbeatEvent);
+    }
+
+    private static void beatAll() {
+        for (EventStream s: streams) {
+            try {
+                s.beat();
+            } catch (Exception e) {
+                s.close();
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            sending = false;
+            queue.clear();
+            byKey.clear();
+        }
+        streams.remove(this);
+        open.decrementAndGet();
+        if (onClose != null)
+            onClose.run();
+        try {
+            sink.close();
+        } catch (Exception e) {
+            // already closed by the client
+        }
+    }
+
+    public static Map<String,Object> getMetrics() {
+        Map<String,Object> m = new HashMap<>();
+        m.put("open", open.get());
+        m.put("sent", totalSent.get());
+        m.put("dropped", totalDropped.get());
+        m.put("coalesced", totalCoalesced.get());
+        return m;
+    }
+}
@@ -0,0 +1,278 @@
+package jacamo.rest.util;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import jacamo.rest.data.JsonWritable;
+
+/**
+ * The JSON mapper of the whole application (REST resources, JSON provider, ZK meta data, ...).
+ *
+ * Gson instances are thread safe, but creating one is expensive (factories and
+ * type adapters are created and cached per instance), so a single instance is shared
+ * instead of creating one by request. Adapters for the classes exchanged
+ * by the API are registered here, so that reflection is not used for them;
+ * the responses of the mediation layer (package jacamo.rest.data) write their own JSON.
+ *
+ * Numbers read into Object values (artifact and operation arguments, service values)
+ * are Integer/Long when integral and Double otherwise, so that
+ * "values":[22] still creates an artifact whose init has an int argument.
+ */
+public class JsonMapper {
+
+    static final Type objectMapType = new TypeToken<Map<String, Object>>() {}.getType();
+
+    private static final Gson gson = create(new GsonBuilder());
+
+    /** registers the adapters of the application in the builder and creates the Gson */
+    public static Gson create(GsonBuilder builder) {
+        return builder
+                .registerTypeAdapter(Message.class, new MessageAdapter())
+                .registerTypeAdapter(PostArtifact.class, new PostArtifactAdapter())
+                .registerTypeAdapter(Object[].class, new ValuesAdapter())
+                .registerTypeAdapter(objectMapType, new ObjectMapAdapter())
+                .registerTypeHierarchyAdapter(JsonWritable.class, new JsonWritableAdapter())
+                .create();
+    }
+
+    /** the shared (thread safe) Gson of the application */
+    public static Gson getGson() {
+        return gson;
+    }
+
+    /** reads any JSON value as Java objects (String, Integer/Long/Double, Boolean, List, Map or null) */
+    public static Object readValue(JsonReader in) throws IOException {
+        switch (in.peek()) {
+        case STRING:
+            return in.nextString();
+        case NUMBER:
+            return toNumber(in.nextString());
+        case BOOLEAN:
+            return in.nextBoolean();
+        case NULL:
+            in.nextNull();
+            return null;
+        case BEGIN_ARRAY:
+            List<Object> l = new ArrayList<>();
+            in.beginArray();
+            while (in.hasNext())
+                l.add(readValue(in));
+            in.endArray();
+            return l;
+        case BEGIN_OBJECT:
+            return readObject(in);
+        default:
+            throw new IllegalStateException("Unexpected JSON token " + in.peek());
+        }
+    }
+
+    /** writes any value (using the adapter of its class) */
+    public static void writeValue(JsonWriter out, Object v) throws IOException {
+        if (v == null)
+            out.nullValue();
+        else
+            gson.toJson(v, v.getClass(), out);
+    }
+
+    static Map<String, Object> readObject(JsonReader in) throws IOException {
+        Map<String, Object> m = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext())
+            m.put(in.nextName(), readValue(in));
+        in.endObject();
+        return m;
+    }
+
+    static Object[] readValues(JsonReader in) throws IOException {
+        List<Object> l = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+            l.add(readValue(in));
+        in.endArray();
+        return l.toArray();
+    }
+
+    static Number toNumber(String s) {
+        if (s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            try {
+                long v = Long.parseLong(s);
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                    return (int)v;
+                return v;
+            } catch (NumberFormatException e) {
+                // too big for long, use double
+            }
+        }
+        return Double.parseDouble(s);
+    }
+
+    static void writeValues(JsonWriter out, Object[] values) throws IOException {
+        out.beginArray();
+        for (Object v: values)
+            writeValue(out, v);
+        out.endArray();
+    }
+
+    static class MessageAdapter extends TypeAdapter<Message> {
+        @Override
+        public void write(JsonWriter out, Message m) throws IOException {
+            if (m == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (m.getPerformative() != null) out.name("performative").value(m.getPerformative());
+            if (m.getSender()       != null) out.name("sender").value(m.getSender());
+            if (m.getReceiver()     != null) out.name("receiver").value(m.getReceiver());
+            if (m.getContent()      != null) out.name("content").value(m.getContent());
+            if (m.getMsgId()        != null) out.name("msgId").value(m.getMsgId());
+            if (m.getInReplyTo()    != null) out.name("inReplyTo").value(m.getInReplyTo());
+            out.endObject();
+        }
+
+        @Override
+        public Message read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Message m = new Message();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                case "performative": m.setPerformative(in.nextString()); break;
+                case "sender":       m.setSender(in.nextString()); break;
+                case "receiver":     m.setReceiver(in.nextString()); break;
+                case "content":      m.setContent(in.nextString()); break;
+                case "msgId":        m.setMsgId(in.nextString()); break;
+                case "inReplyTo":    m.setInReplyTo(in.nextString()); break;
+                default:             in.skipValue();
+                }
+            }
+            in.endObject();
+            return m;
+        }
+    }
+
+    static class PostArtifactAdapter extends TypeAdapter<PostArtifact> {
+        @Override
+        public void write(JsonWriter out, PostArtifact p) throws IOException {
+            if (p == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (p.getTemplate() != null)
+                out.name("template").value(p.getTemplate());
+            if (p.getValues() != null) {
+                out.name("values");
+                writeValues(out, p.getValues());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public PostArtifact read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            PostArtifact p = new PostArtifact();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (name) {
+                case "template": p.setTemplate(in.nextString()); break;
+                case "values":   p.setValues(readValues(in)); break;
+                default:         in.skipValue();
+                }
+            }
+            in.endObject();
+            return p;
+        }
+    }
+
+    /** arguments of artifacts and operations */
+    static class ValuesAdapter extends TypeAdapter<Object[]> {
+        @Override
+        public void write(JsonWriter out, Object[] values) throws IOException {
+            if (values == null)
+                out.nullValue();
+            else
+                writeValues(out, values);
+        }
+
+        @Override
+        public Object[] read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readValues(in);
+        }
+    }
+
+    static class ObjectMapAdapter extends TypeAdapter<Map<String, Object>> {
+        @Override
+        public void write(JsonWriter out, Map<String, Object> m) throws IOException {
+            if (m == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            for (Map.Entry<String, Object> e: m.entrySet()) {
+                out.name(e.getKey());
+                Object v = e.getValue();
+                writeValue(out, v);
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Map<String, Object> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return readObject(in);
+        }
+    }
+
+    static class JsonWritableAdapter extends TypeAdapter<JsonWritable> {
+        @Override
+        public void write(JsonWriter out, JsonWritable v) throws IOException {
+            if (v == null)
+                out.nullValue();
+            else
+                v.writeJson(out);
+        }
+
+        /** responses are only written (in one pass, which a JsonSerializer would not do): the value is skipped */
+        @Override
+        public JsonWritable read(JsonReader in) throws IOException {
+            in.skipValue();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package jacamo.rest.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Entity of responses that writes the JSON of an object directly in the output
+ * stream of the response (that may be compressed by the EncodingFilter), instead of
+ * building the JSON string in memory first.
+ *
+ * Usage: <code>Response.ok(new JsonOutput(gson, map)).build()</code>
+ */
+public class JsonOutput implements StreamingOutput {
+
+    protected final Gson   gson;
+    protected final Object src;
+
+    public JsonOutput(Gson gson, Object src) {
+        this.gson = gson;
+        this.src  = src;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        try {
+            JsonWriter jw = new JsonWriter(w);
+            if (src == null)
+                jw.nullValue();
+            else
+                gson.toJson(src, src.getClass(), jw);
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException)e.getCause();
+            throw e;
+        }
+        w.flush(); // the stream is closed by the container
+    }
+}
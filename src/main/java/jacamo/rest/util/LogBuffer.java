@@ -0,0 +1,209 @@
+package jacamo.rest.util;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Bounded log (of an agent): only the last <i>capacity</i> entries are kept, in a ring buffer.
+ *
+ * Writers do not lock, they reserve a slot by incrementing the sequence number of
+ * the log and then write it. An entry is published (visible to readers and listeners) when
+ * all entries before it are written, so readers never skip an entry that is still being
+ * written and listeners receive the entries in order. Readers skip slots that are overwritten
+ * while they read.
+ */
+public class LogBuffer {
+
+    /** an entry of the log */
+    public static class Entry {
+        private final long   seq;
+        private final long   time;
+        private final Level  level;
+        private final String message;
+
+        public Entry(long seq, long time, Level level, String message) {
+            this.seq     = seq;
+            this.time    = time;
+            this.level   = level;
+            this.message = message;
+        }
+
+        public long   getSeq()     { return seq; }
+        public long   getTime()    { return time; }
+        public Level  getLevel()   { return level; }
+        public String getMessage() { return message; }
+
+        /** appends the entry as "[dd-MM-yy HH:mm:ss] message" */
+        public StringBuilder appendTo(StringBuilder sb) {
+            sb.append('[');
+            appendTime(sb, time);
+            sb.append("] ");
+            sb.append(message);
+            return sb;
+        }
+
+        @Override
+        public String toString() {
+            return appendTo(new StringBuilder()).toString();
+        }
+    }
+
+    private final int                         capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final AtomicLong                  next = new AtomicLong(); // seq of the next entry reserved
+    private final AtomicLong                  published  = new AtomicLong(); // entries before this seq are published
+    private final AtomicBoolean               publishing = new AtomicBoolean(); // a writer is advancing published
+    private final List<Consumer<Entry>>       listeners = new CopyOnWriteArrayList<>();
+
+    public LogBuffer(int capacity) {
+        this.capacity = capacity;
+        this.slots    = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** sequence number of the next entry to be published */
+    public long getNextSeq() {
+        return published.get();
+    }
+
+    public Entry add(Level level, String message) {
+        long seq = next.getAndIncrement();
+        Entry e = new Entry(seq, System.currentTimeMillis(), level, message);
+        int   i = (int)(seq % capacity);
+        Entry cur;
+        do {
+            cur = slots.get(i);
+            if (cur != null && cur.seq > seq)
+                break; // a writer delayed by more than capacity entries does not overwrite a newer entry
+        } while (!slots.compareAndSet(i, cur, e));
+        publish();
+        return e;
+    }
+
+    /**
+     * advances the published cursor over the written entries, calling the listeners in order;
+     * only one writer does it at a time, the others do not wait (their entry is published by it)
+     */
+    private void publish() {
+        do {
+            if (!publishing.compareAndSet(false, true))
+                return;
+            try {
+                long p = published.get();
+                Entry e;
+                while ((e = slots.get((int)(p % capacity))) != null && e.seq >= p) {
+                    if (e.seq == p) // otherwise already overwritten
+                        for (Consumer<Entry> l: listeners) {
+                            try {
+                                l.accept(e);
+                            } catch (Exception ex) {
+                                ex.printStackTrace();
+                            }
+                        }
+                    published.set(++p);
+                }
+            } finally {
+                publishing.set(false);
+            }
+        } while (isWritten(published.get())); // written while publishing was released
+    }
+
+    private boolean isWritten(long seq) {
+        Entry e = slots.get((int)(seq % capacity));
+        return e != null && e.seq >= seq;
+    }
+
+    /** listeners are called for every new entry, in the order of the entries (by one of the threads that add entries) */
+    public void addListener(Consumer<Entry> l) {
+        listeners.add(l);
+    }
+    public void removeListener(Consumer<Entry> l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Returns (the oldest first) at most <i>limit</i> published entries with sequence number &gt;= <i>since</i>
+     * (entries already removed from the buffer are ignored).
+     */
+    public List<Entry> get(long since, int limit) {
+        long end   = published.get();
+        long start = Math.max(Math.max(since, end - capacity), 0);
+        if (start >= end || limit <= 0)
+            return new ArrayList<>(); // since is after the last entry
+        List<Entry> r = new ArrayList<>((int)Math.min(limit, end - start));
+        for (long s = start; s < end && r.size() < limit; s++) {
+            Entry e = slots.get((int)(s % capacity));
+            if (e != null && e.seq == s)
+                r.add(e);
+        }
+        return r;
+    }
+
+    /** the entries as text, one by line */
+    public static String toText(List<Entry> entries) {
+        StringBuilder sb = new StringBuilder(entries.size() * 64);
+        for (Entry e: entries) {
+            if (sb.length() > 0)
+                sb.append('\n');
+            e.appendTo(sb);
+        }
+        return sb.toString();
+    }
+
+    // Time formatting: the date part is formatted once a day, the time part is written digit by digit
+
+    private static final class FormattedDay {
+        final long     day;
+        final String   text;
+        final TimeZone zone; // TimeZone.getDefault() returns a copy, so it is read once a day
+        FormattedDay(long day, String text, TimeZone zone) {
+            this.day  = day;
+            this.text = text;
+            this.zone = zone;
+        }
+    }
+
+    private static final long               MS_DAY = 24 * 60 * 60 * 1000;
+    private static volatile FormattedDay    formattedDay = new FormattedDay(Long.MIN_VALUE, "", TimeZone.getDefault());
+
+    /** appends the time as "dd-MM-yy HH:mm:ss" (local time zone) */
+    public static void appendTime(StringBuilder sb, long time) {
+        FormattedDay d = formattedDay;
+        long local = time + d.zone.getOffset(time);
+        long day   = Math.floorDiv(local, MS_DAY);
+        if (d.day != day) {
+            TimeZone zone = TimeZone.getDefault();
+            local = time + zone.getOffset(time);
+            day   = Math.floorDiv(local, MS_DAY);
+            SimpleDateFormat f = new SimpleDateFormat("dd-MM-yy ");
+            f.setTimeZone(zone);
+            d = new FormattedDay(day, f.format(new Date(time)), zone);
+            formattedDay = d;
+        }
+        sb.append(d.text);
+
+        int secs = (int)((local - day * MS_DAY) / 1000);
+        append2(sb, secs / 3600);
+        sb.append(':');
+        append2(sb, (secs / 60) % 60);
+        sb.append(':');
+        append2(sb, secs % 60);
+    }
+
+    private static void append2(StringBuilder sb, int v) {
+        sb.append((char)('0' + v / 10));
+        sb.append((char)('0' + v % 10));
+    }
+}
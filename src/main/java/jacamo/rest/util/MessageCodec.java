@@ -0,0 +1,409 @@
+package jacamo.rest.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jason.asSyntax.ASSyntax;
+import jason.asSyntax.Atom;
+import jason.asSyntax.ListTerm;
+import jason.asSyntax.ListTermImpl;
+import jason.asSyntax.Literal;
+import jason.asSyntax.LiteralImpl;
+import jason.asSyntax.NumberTermImpl;
+import jason.asSyntax.Pred;
+import jason.asSyntax.StringTerm;
+import jason.asSyntax.StringTermImpl;
+import jason.asSyntax.Structure;
+import jason.asSyntax.Term;
+
+/**
+ * Compact binary encoding of Jason messages, used between jacamo-rest nodes
+ * (Content-Type application/x-jacamo-msg). External clients keep using JSON.
+ *
+ * The stream has a header (magic byte and version) followed by messages until its end.
+ * Each message is: the performative (index in a fixed table), a byte with the fields present,
+ * the fields (strings) and the content as a term tree (atoms, literals, numbers, strings and lists;
+ * other terms are written as text and parsed by the receiver). Strings are UTF-8 prefixed by
+ * their length; a string already written in the stream (agent names, functors, ...)
+ * is written as a reference to it.
+ *
+ * The reader does not trust the stream: a stream is read up to a maximum number of bytes,
+ * the lengths of strings and the sizes of terms are limited by the bytes not read yet and
+ * terms are nested at most MAX_DEPTH levels, every invalid stream produces an IOException.
+ */
+public class MessageCodec {
+
+    public static final String MEDIA_TYPE = "application/x-jacamo-msg";
+
+    static final int MAGIC   = 0x4A;
+    static final int VERSION = 1;
+
+    static final String[] performatives = {
+            "tell", "untell", "achieve", "unachieve", "askOne", "askAll", "askHow", "tellHow", "untellHow", "signal" };
+    static final int OTHER_PERFORMATIVE = 0xFF;
+
+    // fields present
+    static final int SENDER      = 1;
+    static final int RECEIVER    = 2;
+    static final int MSG_ID      = 4;
+    static final int IN_REPLY_TO = 8;
+    static final int CONTENT     = 16;
+
+    // term tags
+    static final int T_ATOM    = 1;
+    static final int T_LITERAL = 2; // functor, negated, terms, annots
+    static final int T_INT     = 3;
+    static final int T_DOUBLE  = 4;
+    static final int T_STRING  = 5;
+    static final int T_LIST    = 6;
+    static final int T_TEXT    = 7; // parsed by the receiver
+    static final int T_OBJECT  = 8; // content that is not a term (kept as string)
+
+    static final int MAX_STRINGS = 4096; // strings kept to be referenced
+    static final int MAX_DEPTH   = 256;  // nesting of terms accepted by the reader
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024; // of a stream read
+
+    /** encodes the messages (header included) */
+    public static byte[] encode(List<jason.asSemantics.Message> msgs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * msgs.size() + 2);
+        Writer w = new Writer(bytes);
+        for (jason.asSemantics.Message m: msgs)
+            w.write(m);
+        w.flush();
+        return bytes.toByteArray();
+    }
+
+    /** decodes all messages of the bytes */
+    public static List<jason.asSemantics.Message> decode(byte[] bytes) throws IOException {
+        List<jason.asSemantics.Message> msgs = new ArrayList<>();
+        Reader r = new Reader(new ByteArrayInputStream(bytes), bytes.length);
+        jason.asSemantics.Message m;
+        while ((m = r.next()) != null)
+            msgs.add(m);
+        return msgs;
+    }
+
+    /** writes messages in a stream, the header is written by the constructor */
+    public static class Writer {
+        protected final DataOutputStream     out;
+        protected final Map<String, Integer> strings = new HashMap<>();
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.write(MAGIC);
+            this.out.write(VERSION);
+        }
+
+        public void write(jason.asSemantics.Message m) throws IOException {
+            int p = indexOf(m.getIlForce());
+            out.write(p);
+            if (p == OTHER_PERFORMATIVE)
+                writeString(m.getIlForce());
+
+            Object content = m.getPropCont();
+            int fields = (m.getSender()    != null ? SENDER : 0)
+                       | (m.getReceiver()  != null ? RECEIVER : 0)
+                       | (m.getMsgId()     != null ? MSG_ID : 0)
+                       | (m.getInReplyTo() != null ? IN_REPLY_TO : 0)
+                       | (content          != null ? CONTENT : 0);
+            out.write(fields);
+            if (m.getSender() != null)    writeString(m.getSender());
+            if (m.getReceiver() != null)  writeString(m.getReceiver());
+            if (m.getMsgId() != null)     writeString(m.getMsgId());
+            if (m.getInReplyTo() != null) writeString(m.getInReplyTo());
+            if (content != null) {
+                if (content instanceof Term) {
+                    writeTerm((Term)content);
+                } else {
+                    out.write(T_OBJECT);
+                    writeString(content.toString());
+                }
+            }
+        }
+
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        protected void writeTerm(Term t) throws IOException {
+            Class<?> c = t.getClass();
+            if (c == NumberTermImpl.class) {
+                double d = number(t);
+                if (d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < (1L << 53)) {
+                    out.write(T_INT);
+                    writeVarLong(zigzag((long)d));
+                } else {
+                    out.write(T_DOUBLE);
+                    out.writeDouble(d);
+                }
+            } else if (c == StringTermImpl.class) {
+                out.write(T_STRING);
+                writeString(((StringTerm)t).getString());
+            } else if (c == ListTermImpl.class && ((ListTerm)t).getTail() == null) {
+                List<Term> l = ((ListTerm)t).getAsList();
+                out.write(T_LIST);
+                writeVarLong(l.size());
+                for (Term e: l)
+                    writeTerm(e);
+            } else if ((c == Atom.class || c == Structure.class || c == Pred.class || c == LiteralImpl.class)
+                       && ((Literal)t).getNS().equals(Literal.DefaultNS)) {
+                Literal l = (Literal)t;
+                if (t.isAtom()) {
+                    out.write(T_ATOM);
+                    writeString(l.getFunctor());
+                } else {
+                    out.write(T_LITERAL);
+                    writeString(l.getFunctor());
+                    out.writeBoolean(l.negated());
+                    writeVarLong(l.getArity());
+                    for (int i = 0; i < l.getArity(); i++)
+                        writeTerm(l.getTerm(i));
+                    List<Term> annots = l.hasAnnot() ? l.getAnnots().getAsList() : null;
+                    writeVarLong(annots == null ? 0 : annots.size());
+                    if (annots != null)
+                        for (Term a: annots)
+                            writeTerm(a);
+                }
+            } else {
+                // variables, rules, plans, expressions, ...
+                out.write(T_TEXT);
+                writeString(t.toString());
+            }
+        }
+
+        protected void writeString(String s) throws IOException {
+            Integer ref = strings.get(s);
+            if (ref != null) {
+                writeVarLong(((long)ref << 1) | 1);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong((long)b.length << 1);
+            out.write(b);
+            if (strings.size() < MAX_STRINGS)
+                strings.put(s, strings.size());
+        }
+
+        protected void writeVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                out.write((int)((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            out.write((int)v);
+        }
+
+        static double number(Term t) {
+            try {
+                return ((NumberTermImpl)t).solve();
+            } catch (Exception e) {
+                return Double.NaN;
+            }
+        }
+
+        static int indexOf(String performative) {
+            for (int i = 0; i < performatives.length; i++)
+                if (performatives[i].equals(performative))
+                    return i;
+            return OTHER_PERFORMATIVE;
+        }
+
+        static long zigzag(long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+    }
+
+    /** reads the messages of a stream as they arrive */
+    public static class Reader {
+        protected final DataInputStream in;
+        protected final long            maxBytes;
+        protected long                  read    = 0; // bytes read from the stream
+        protected final List<String>    strings = new ArrayList<>();
+        protected boolean               header  = false;
+
+        public Reader(InputStream in) {
+            this(in, DEFAULT_MAX_BYTES);
+        }
+
+        /**
+         * @param maxBytes max number of bytes read from the stream (its length, if known)
+         */
+        public Reader(InputStream in, long maxBytes) {
+            this.in = new DataInputStream(new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1)
+                        count(1);
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0)
+                        count(n);
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) throws IOException {
+                    long r = super.skip(n);
+                    count(r);
+                    return r;
+                }
+            });
+            this.maxBytes = maxBytes;
+        }
+
+        /** the next message, null at the end of the stream */
+        public jason.asSemantics.Message next() throws IOException {
+            try {
+                return readMessage();
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException | StackOverflowError | OutOfMemoryError e) {
+                throw new IOException("invalid message: " + e, e);
+            }
+        }
+
+        protected jason.asSemantics.Message readMessage() throws IOException {
+            if (!header) {
+                int m = in.read();
+                if (m == -1)
+                    return null; // empty stream
+                if (m != MAGIC || in.read() != VERSION)
+                    throw new IOException("not a " + MEDIA_TYPE + " (version " + VERSION + ") stream");
+                header = true;
+            }
+            int p = in.read();
+            if (p == -1)
+                return null;
+            String performative = p == OTHER_PERFORMATIVE ? readString() : performative(p);
+            int fields = in.readUnsignedByte();
+            String sender    = (fields & SENDER) != 0      ? readString() : null;
+            String receiver  = (fields & RECEIVER) != 0    ? readString() : null;
+            String msgId     = (fields & MSG_ID) != 0      ? readString() : null;
+            String inReplyTo = (fields & IN_REPLY_TO) != 0 ? readString() : null;
+            Object content   = (fields & CONTENT) != 0     ? readContent() : null;
+
+            jason.asSemantics.Message m = new jason.asSemantics.Message(performative, sender, receiver, content, msgId);
+            m.setInReplyTo(inReplyTo);
+            return m;
+        }
+
+        protected Object readContent() throws IOException {
+            int tag = in.readUnsignedByte();
+            return tag == T_OBJECT ? readString() : readTerm(tag, 0);
+        }
+
+        protected Term readTerm(int tag, int depth) throws IOException {
+            if (depth > MAX_DEPTH)
+                throw new IOException("terms nested more than " + MAX_DEPTH + " levels");
+            switch (tag) {
+            case T_ATOM:
+                String f = readString();
+                if (f.equals("true"))  return Literal.LTrue;
+                if (f.equals("false")) return Literal.LFalse;
+                return ASSyntax.createAtom(f);
+            case T_LITERAL:
+                String functor = readString();
+                boolean negated = in.readBoolean();
+                Term[] terms = new Term[readSize()];
+                for (int i = 0; i < terms.length; i++)
+                    terms[i] = readTerm(in.readUnsignedByte(), depth + 1);
+                Literal l = ASSyntax.createLiteral(!negated, functor, terms);
+                int nannots = readSize();
+                for (int i = 0; i < nannots; i++)
+                    l.addAnnot(readTerm(in.readUnsignedByte(), depth + 1));
+                return l;
+            case T_INT:
+                long z = readVarLong();
+                return ASSyntax.createNumber((z >>> 1) ^ -(z & 1));
+            case T_DOUBLE:
+                return ASSyntax.createNumber(in.readDouble());
+            case T_STRING:
+                return ASSyntax.createString(readString());
+            case T_LIST:
+                Term[] elements = new Term[readSize()];
+                for (int i = 0; i < elements.length; i++)
+                    elements[i] = readTerm(in.readUnsignedByte(), depth + 1);
+                return ASSyntax.createList(elements);
+            case T_TEXT:
+                String text = readString();
+                try {
+                    return ASSyntax.parseTerm(text);
+                } catch (Exception e) {
+                    throw new IOException("invalid term " + text + ": " + e.getMessage());
+                }
+            default:
+                throw new IOException("unknown term tag " + tag);
+            }
+        }
+
+        protected String readString() throws IOException {
+            long v = readVarLong();
+            if ((v & 1) != 0) {
+                int ref = (int)(v >>> 1);
+                if (ref >= strings.size())
+                    throw new IOException("invalid string reference " + ref);
+                return strings.get(ref);
+            }
+            byte[] b = new byte[readLength(v >>> 1)];
+            in.readFully(b);
+            String s = new String(b, StandardCharsets.UTF_8);
+            if (strings.size() < MAX_STRINGS)
+                strings.add(s);
+            return s;
+        }
+
+        /** number of terms (each one has at least one byte) */
+        protected int readSize() throws IOException {
+            return readLength(readVarLong());
+        }
+
+        /** a length not greater than the bytes that can still be read */
+        protected int readLength(long n) throws IOException {
+            if (n < 0 || n > maxBytes - read || n > Integer.MAX_VALUE - 8)
+                throw new IOException("invalid length " + n + " (" + Math.max(0, maxBytes - read) + " bytes left)");
+            return (int)n;
+        }
+
+        protected void count(long n) throws IOException {
+            read += n;
+            if (read > maxBytes)
+                throw new IOException("stream larger than " + maxBytes + " bytes");
+        }
+
+        protected long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.read();
+                if (b == -1)
+                    throw new EOFException();
+                v |= (long)(b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IOException("invalid number");
+        }
+
+        static String performative(int p) throws IOException {
+            if (p >= performatives.length)
+                throw new IOException("unknown performative " + p);
+            return performatives[p];
+        }
+    }
+}
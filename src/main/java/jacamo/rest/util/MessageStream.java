@@ -0,0 +1,166 @@
+package jacamo.rest.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Reads the messages posted to inboxes, delivering each message as soon as it is read
+ * (the whole body is not kept in memory).
+ *
+ * The body is a message, a JSON array of messages, (application/x-ndjson) one message by line, or
+ * (application/x-jacamo-msg) messages encoded by {@link MessageCodec}.
+ * A line of NDJSON that is not a message is rejected and the next lines are read; an invalid
+ * JSON array or binary stream stops the reading.
+ */
+public class MessageStream {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    /** delivers one message, throws an exception if the message is rejected */
+    public interface Delivery {
+        void deliver(Message m) throws Exception;
+    }
+
+    /** delivers one message decoded by the MessageCodec, throws an exception if the message is rejected */
+    public interface JasonDelivery {
+        void deliver(jason.asSemantics.Message m) throws Exception;
+    }
+
+    /** outcome of reading the body */
+    public static class Summary {
+        int accepted = 0;
+        final List<Map<String,Object>> rejected = new ArrayList<>();
+        boolean single = true;  // the body is a single JSON message
+        String  invalid = null; // error that stopped the reading
+
+        public boolean isSingle()   { return single; }
+        public int     getAccepted() { return accepted; }
+        public String  getInvalid()  { return invalid; }
+        public List<Map<String,Object>> getRejected() { return rejected; }
+
+        void reject(int index, String receiver, String error) {
+            Map<String,Object> r = new LinkedHashMap<>();
+            r.put("index", index);
+            if (receiver != null)
+                r.put("receiver", receiver);
+            r.put("error", error);
+            rejected.add(r);
+        }
+
+        /** {"accepted": n, "rejected": [{"index": i, "receiver": ..., "error": ...}], "error": ... } */
+        public Map<String,Object> toMap() {
+            Map<String,Object> m = new LinkedHashMap<>();
+            m.put("accepted", accepted);
+            m.put("rejected", rejected);
+            if (invalid != null)
+                m.put("error", invalid);
+            return m;
+        }
+    }
+
+    protected final TypeAdapter<Message> adapter;
+
+    public MessageStream(Gson gson) {
+        this.adapter = gson.getAdapter(Message.class);
+    }
+
+    public Summary read(InputStream in, boolean ndjson, Delivery d) throws IOException {
+        Summary s = new Summary();
+        if (ndjson)
+            readLines(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), s, d);
+        else
+            readJson(new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8)), s, d);
+        return s;
+    }
+
+    /** reads a body encoded by the MessageCodec */
+    public static Summary readBinary(InputStream in, JasonDelivery d) throws IOException {
+        return readBinary(in, MessageCodec.DEFAULT_MAX_BYTES, d);
+    }
+
+    /** reads a body encoded by the MessageCodec, with at most maxBytes */
+    public static Summary readBinary(InputStream in, long maxBytes, JasonDelivery d) throws IOException {
+        Summary s = new Summary();
+        s.single = false;
+        MessageCodec.Reader r = new MessageCodec.Reader(in, maxBytes);
+        int index = 0;
+        try {
+            jason.asSemantics.Message m;
+            while ((m = r.next()) != null) {
+                try {
+                    d.deliver(m);
+                    s.accepted++;
+                } catch (Exception e) {
+                    s.reject(index, m.getReceiver(), e.getMessage() == null ? e.toString() : e.getMessage());
+                }
+                index++;
+            }
+        } catch (IOException | RuntimeException e) {
+            s.invalid = "invalid message stream after " + index + " messages: " + e.getMessage();
+        }
+        return s;
+    }
+
+    protected void readLines(BufferedReader in, Summary s, Delivery d) throws IOException {
+        s.single = false;
+        int index = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty())
+                continue;
+            Message m = null;
+            try {
+                m = adapter.fromJson(line);
+            } catch (IOException | JsonParseException | IllegalStateException e) {
+                s.reject(index++, null, "invalid message: " + e.getMessage());
+                continue;
+            }
+            deliver(index++, m, s, d);
+        }
+    }
+
+    protected void readJson(JsonReader in, Summary s, Delivery d) throws IOException {
+        int index = 0;
+        try {
+            if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                s.single = false;
+                in.beginArray();
+                while (in.hasNext()) {
+                    Message m = adapter.read(in); // index is the number of messages read when it fails
+                    deliver(index++, m, s, d);
+                }
+                in.endArray();
+            } else {
+                deliver(index, adapter.read(in), s, d);
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            s.invalid = "invalid JSON after " + index + " messages: " + e.getMessage();
+        }
+    }
+
+    protected void deliver(int index, Message m, Summary s, Delivery d) {
+        if (m == null) {
+            s.reject(index, null, "null message");
+            return;
+        }
+        try {
+            d.deliver(m);
+            s.accepted++;
+        } catch (Exception e) {
+            s.reject(index, m.getReceiver(), e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+    }
+}
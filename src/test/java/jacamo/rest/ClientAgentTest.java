@@ -4,18 +4,26 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.net.ServerSocket;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.Form;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.SseEventSource;
 
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
@@ -23,8 +31,11 @@ import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 
 import jacamo.rest.util.Message;
+import jacamo.rest.util.MessageCodec;
+import jason.asSyntax.ASSyntax;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class ClientAgentTest {
@@ -74,6 +85,25 @@ public class ClientAgentTest {
         client.close();
     }
      
+    @Test
+    public void test002bGetAgentDetails() {
+        System.out.println("\n\ntest002bGetAgentDetails");
+        Response response;
+        String rStr;
+
+        // roles and observed artifacts of marcos (see test1.jcm)
+        response = client.target(uri.toString()).path("agents/marcos")
+                .request(MediaType.APPLICATION_JSON).get();
+        rStr = response.readEntity(String.class).toString();
+        System.out.println("Response (agents/marcos): " + rStr);
+        assertTrue(rStr.contains("\"role\":\"role1\""));
+        assertTrue(rStr.contains("\"group\":\"group1\""));
+        assertTrue(rStr.contains("\"artifact\":\"a\""));
+        assertTrue(rStr.contains("\"artifact\":\"b\""));
+
+        client.close();
+    }
+
     @Test
     public void test003GetAgentStatus() {
         System.out.println("\n\ntest003GetAgentStatus");
@@ -129,7 +159,75 @@ public class ClientAgentTest {
 
         client.close();
     }
-    
+
+    @Test
+    public void test004bGetAgentLogPaging() {
+        System.out.println("\n\ntest004bGetAgentLogPaging");
+        Response response;
+        String rStr;
+
+        Form form = new Form();
+        form.param("c", "+sunny");
+        client.target(uri.toString())
+                .path("agents/marcos/command")
+                .request()
+                .post(Entity.form(form));
+
+        // only the first entry
+        response = client.target(uri.toString()).path("agents/marcos/log")
+                .queryParam("limit", 1)
+                .request(MediaType.TEXT_PLAIN).get();
+        rStr = response.readEntity(String.class).toString();
+        System.out.println("Response (agents/marcos/log?limit=1): " + rStr);
+        assertEquals(200, response.getStatus());
+        assertEquals(1, rStr.split("\n").length);
+        assertNotNull(response.getHeaderString("X-Log-Next"));
+
+        // entries after the first
+        long next = Long.parseLong(response.getHeaderString("X-Log-Next"));
+        response = client.target(uri.toString()).path("agents/marcos/log")
+                .queryParam("since", next)
+                .request(MediaType.TEXT_PLAIN).get();
+        rStr = response.readEntity(String.class).toString();
+        System.out.println("Response (agents/marcos/log?since="+next+"): " + rStr);
+        assertTrue(rStr.contains("Command +sunny"));
+
+        // since after the last entry (e.g., a client that knew a previous run): no entries
+        response = client.target(uri.toString()).path("agents/marcos/log")
+                .queryParam("since", Long.MAX_VALUE / 2)
+                .request(MediaType.TEXT_PLAIN).get();
+        assertEquals(200, response.getStatus());
+        assertEquals("", response.readEntity(String.class));
+
+        client.close();
+    }
+
+    @Test
+    public void test004cGetAgentLogStream() throws Exception {
+        System.out.println("\n\ntest004cGetAgentLogStream");
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        WebTarget target = client.target(uri.toString()).path("agents/marcos/log/stream").queryParam("since", 0);
+        try (SseEventSource source = SseEventSource.target(target).build()) {
+            source.register(ev -> received.add(ev.readData()));
+            source.open();
+
+            Form form = new Form();
+            form.param("c", "+cloudy");
+            client.target(uri.toString())
+                    .path("agents/marcos/command")
+                    .request()
+                    .post(Entity.form(form));
+
+            Thread.sleep(1000);
+        }
+        System.out.println("Events (agents/marcos/log/stream): " + received);
+        assertTrue(received.stream().anyMatch(s -> s.contains("Command +raining"))); // replayed
+        assertTrue(received.stream().anyMatch(s -> s.contains("Command +cloudy")));  // new
+
+        client.close();
+    }
+
     @Test
     public void test005GetAgentBeliefs() {
         System.out.println("\n\ntest005GetAgentBeliefs");
@@ -171,6 +269,255 @@ public class ClientAgentTest {
         client.close();
     }
     
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void test006bPostBatchInbox() {
+        System.out.println("\n\ntest006bPostBatchInbox");
+        Gson gson = new Gson();
+
+        Message[] msgs = new Message[] {
+                new Message("35", "tell", "jomi", "marcos", "vl(20)"),
+                new Message("36", "tell", "jomi", "nobody", "vl(30)")
+        };
+        Response response = client.target(uri.toString()).path("agents/_batch/inbox")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(gson.toJson(msgs)));
+        assertEquals(200, response.getStatus());
+        Map r = gson.fromJson(response.readEntity(String.class), Map.class);
+        System.out.println("Response (agents/_batch/inbox): " + r);
+        assertEquals(1, ((Number)r.get("accepted")).intValue());
+        assertEquals(1, ((List)r.get("rejected")).size());
+        assertEquals("nobody", ((Map)((List)r.get("rejected")).get(0)).get("receiver"));
+
+        response = client.target(uri.toString()).path("agents/marcos")
+                .request(MediaType.APPLICATION_JSON).get();
+        assertTrue(response.readEntity(String.class).contains("vl(20)[source(jomi)]"));
+
+        // NDJSON in the inbox of an agent, an invalid line does not stop the others
+        String ndjson = gson.toJson(new Message("37", "tell", "jomi", "marcos", "vl(40)")) + "\n"
+                      + "not json\n"
+                      + gson.toJson(new Message("38", "tell", "jomi", "marcos", "vl(50)")) + "\n";
+        response = client.target(uri.toString()).path("agents/marcos/inbox")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(ndjson, "application/x-ndjson"));
+        assertEquals(200, response.getStatus());
+        r = gson.fromJson(response.readEntity(String.class), Map.class);
+        System.out.println("Response (agents/marcos/inbox): " + r);
+        assertEquals(2, ((Number)r.get("accepted")).intValue());
+        assertEquals(1, ((Number)((Map)((List)r.get("rejected")).get(0)).get("index")).intValue());
+
+        response = client.target(uri.toString()).path("agents/marcos")
+                .request(MediaType.APPLICATION_JSON).get();
+        String rStr = response.readEntity(String.class);
+        assertTrue(rStr.contains("vl(40)[source(jomi)]"));
+        assertTrue(rStr.contains("vl(50)[source(jomi)]"));
+
+        // an invalid JSON array stops the reading, the error has the number of messages read
+        String invalid = "[" + gson.toJson(new Message("39", "tell", "jomi", "marcos", "vl(55)")) + ", {\"performative\": ]";
+        response = client.target(uri.toString()).path("agents/_batch/inbox")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(invalid));
+        assertEquals(400, response.getStatus());
+        r = gson.fromJson(response.readEntity(String.class), Map.class);
+        System.out.println("Response (agents/_batch/inbox): " + r);
+        assertEquals(1, ((Number)r.get("accepted")).intValue());
+        assertTrue(r.get("error").toString().startsWith("invalid JSON after 1 messages"));
+
+        client.close();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void test006cPostBinaryBatchInbox() throws Exception {
+        System.out.println("\n\ntest006cPostBinaryBatchInbox");
+        Gson gson = new Gson();
+
+        List<jason.asSemantics.Message> msgs = new ArrayList<>();
+        msgs.add(new jason.asSemantics.Message("tell", "jomi", "marcos", ASSyntax.parseLiteral("vl(60,\"a\",[1,2.5,b])[x]"), "39"));
+        msgs.add(new jason.asSemantics.Message("tell", "jomi", "nobody", ASSyntax.parseLiteral("vl(70)"), "40"));
+        byte[] body = MessageCodec.encode(msgs);
+
+        // the decoded messages are the sent ones
+        List<jason.asSemantics.Message> decoded = MessageCodec.decode(body);
+        assertEquals(2, decoded.size());
+        assertEquals(msgs.get(0).getPropCont(), decoded.get(0).getPropCont());
+        assertEquals("nobody", decoded.get(1).getReceiver());
+        assertEquals("40", decoded.get(1).getMsgId());
+
+        // invalid streams are not decoded (and do not allocate what they announce)
+        assertInvalidBinary(new byte[] { 0x4A, 1, 0, 16, 5, (byte)0xFE, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x0F, 'a' }); // string of 2^31-1 bytes
+        assertInvalidBinary(new byte[] { 0x4A, 1, 0, 16, 6, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x7F });               // list of 2^28-1 terms
+        byte[] deep = new byte[4 + 2 * 1000];
+        deep[0] = 0x4A; deep[1] = 1; deep[2] = 0; deep[3] = 16;
+        for (int i = 4; i < deep.length; i += 2) {                                                                    // 1000 nested lists
+            deep[i] = 6;
+            deep[i+1] = 1;
+        }
+        assertInvalidBinary(deep);
+
+        Response response = client.target(uri.toString()).path("agents/_batch/inbox")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.entity(body, MessageCodec.MEDIA_TYPE));
+        assertEquals(200, response.getStatus());
+        Map r = gson.fromJson(response.readEntity(String.class), Map.class);
+        System.out.println("Response (agents/_batch/inbox, binary): " + r);
+        assertEquals(1, ((Number)r.get("accepted")).intValue());
+        assertEquals("nobody", ((Map)((List)r.get("rejected")).get(0)).get("receiver"));
+
+        response = client.target(uri.toString()).path("agents/marcos")
+                .request(MediaType.APPLICATION_JSON).get();
+        String rStr = response.readEntity(String.class);
+        assertTrue(rStr.contains("vl(60,\"a\",[1,2.5,b])["));
+        assertTrue(rStr.contains("source(jomi)"));
+
+        client.close();
+    }
+
+    static void assertInvalidBinary(byte[] body) {
+        try {
+            MessageCodec.decode(body);
+            fail("invalid stream decoded");
+        } catch (IOException e) {
+            System.out.println("Invalid stream: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void test006dNodeChannel() throws Exception {
+        System.out.println("\n\ntest006dNodeChannel");
+
+        List<jason.asSemantics.Message> msgs = new ArrayList<>();
+        msgs.add(new jason.asSemantics.Message("tell", "jomi", "marcos", ASSyntax.parseLiteral("vl(80)"), "41"));
+        msgs.add(new jason.asSemantics.Message("tell", "jomi", "nobody", ASSyntax.parseLiteral("vl(90)"), "42"));
+
+        NodeChannels channels = new NodeChannels(5000);
+        try {
+            // two batches by the same connection
+            JsonObject ack = channels.send(uri.toString() + "agents/", MessageCodec.encode(msgs));
+            System.out.println("Ack (agents/_ws): " + ack);
+            assertNotNull(ack);
+            assertEquals(1, ack.get("accepted").getAsInt());
+            assertEquals("nobody", ack.getAsJsonArray("rejected").get(0).getAsJsonObject().get("receiver").getAsString());
+
+            ack = channels.send(uri.toString() + "agents/", MessageCodec.encode(msgs.subList(0, 1)));
+            assertEquals(1, ack.get("accepted").getAsInt());
+            assertEquals(1, ((Number)channels.getMetrics().get("connects")).intValue());
+
+            // a node without the WebSocket: null, the batch has to be posted
+            assertNull(channels.send(uri.toString() + "nothing/agents/", MessageCodec.encode(msgs)));
+        } finally {
+            channels.stop();
+        }
+
+        // a batch written but not acknowledged is not posted: it may have been delivered
+        NodeChannels impatient = new NodeChannels(0);
+        try {
+            impatient.send(uri.toString() + "agents/", MessageCodec.encode(msgs.subList(0, 1)));
+            fail("batch acknowledged in 0 ms");
+        } catch (NodeChannels.NotAcknowledgedException e) {
+            System.out.println("Not acknowledged: " + e.getMessage());
+        } finally {
+            impatient.stop();
+        }
+        assertEquals(1L, impatient.getMetrics().get("notAcknowledged"));
+        assertEquals(0L, impatient.getMetrics().get("fallbacks"));
+
+        Response response = client.target(uri.toString()).path("agents/marcos")
+                .request(MediaType.APPLICATION_JSON).get();
+        assertTrue(response.readEntity(String.class).contains("vl(80)[source(jomi)]"));
+
+        client.close();
+    }
+
+    @Test
+    public void test006eDeliveryFailed() throws Exception {
+        System.out.println("\n\ntest006eDeliveryFailed");
+
+        // an inbox on a port that is closed
+        int port;
+        try (ServerSocket s = new ServerSocket(0)) {
+            port = s.getLocalPort();
+        }
+        String inbox = "http://localhost:" + port + "/agents/bob/inbox";
+
+        // the request is retried and then the message is dropped
+        OutboundDelivery delivery = new OutboundDelivery(10, 10, 2, false, null);
+        List<String> failures = new CopyOnWriteArrayList<>();
+        try {
+            delivery.send(new jason.asSemantics.Message("tell", "jomi", "bob", ASSyntax.parseLiteral("vl(1)"), "51"), inbox,
+                    (m, reason) -> failures.add(m.getMsgId() + " " + reason));
+            long end = System.currentTimeMillis() + 10000;
+            while (failures.isEmpty() && System.currentTimeMillis() < end)
+                Thread.sleep(100);
+            System.out.println("Failures: " + failures);
+            assertEquals(1, failures.size());
+            assertTrue(failures.get(0).startsWith("51 node "));
+            assertEquals(2L, delivery.getMetrics().get("retries"));
+            assertEquals(1L, delivery.getMetrics().get("dropped"));
+        } finally {
+            delivery.stop();
+        }
+
+        // the agent sending to that inbox gets +delivery_failed
+        client.target(uri.toString())
+                .path("agents/marcos/plans")
+                .request()
+                .post(Entity.json("+delivery_failed(R,I,E) <- +not_delivered(R)."))
+                .close();
+        Form form = new Form();
+        form.param("c", ".send(\"" + inbox + "\", tell, vl(2));");
+        client.target(uri.toString())
+                .path("agents/marcos/command")
+                .request()
+                .post(Entity.form(form))
+                .close();
+
+        String rStr = "";
+        long end = System.currentTimeMillis() + 10000;
+        while (!rStr.contains("not_delivered(") && System.currentTimeMillis() < end) {
+            Thread.sleep(200);
+            rStr = client.target(uri.toString()).path("agents/marcos")
+                    .request(MediaType.APPLICATION_JSON).get().readEntity(String.class);
+        }
+        System.out.println("Response (agents/marcos): " + rStr);
+        assertTrue(rStr.contains("not_delivered(\"" + inbox + "\")"));
+
+        client.close();
+    }
+
+    @Test
+    public void test006fDeliverySlowNodes() throws Exception {
+        System.out.println("\n\ntest006fDeliverySlowNodes");
+
+        // nodes that accept connections and never answer
+        try (ServerSocket silent = new ServerSocket(0)) {
+            String slow = "http://localhost:" + silent.getLocalPort();
+            OutboundDelivery delivery = new OutboundDelivery(10, 10, 0, false, null);
+            try {
+                for (int i = 0; i < 4; i++)
+                    delivery.send(new jason.asSemantics.Message("tell", "jomi", "bob", ASSyntax.parseLiteral("vl(3)"), null),
+                            slow + "/n" + i + "/agents/bob/inbox", (m, reason) -> {});
+
+                // the messages to the other nodes are still delivered
+                delivery.send(new jason.asSemantics.Message("tell", "jomi", "marcos", ASSyntax.parseLiteral("vl(96)"), null),
+                        uri.toString() + "agents/marcos/inbox", (m, reason) -> {});
+
+                String rStr = "";
+                long end = System.currentTimeMillis() + 10000;
+                while (!rStr.contains("vl(96)[source(jomi)]") && System.currentTimeMillis() < end) {
+                    Thread.sleep(200);
+                    rStr = client.target(uri.toString()).path("agents/marcos")
+                            .request(MediaType.APPLICATION_JSON).get().readEntity(String.class);
+                }
+                assertTrue(rStr.contains("vl(96)[source(jomi)]"));
+            } finally {
+                delivery.stop();
+            }
+        }
+
+        client.close();
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void test007PostAgentPlan() {
@@ -353,6 +700,71 @@ public class ClientAgentTest {
         client.close();
     }
 
+    @Test
+    public void test011bPostAgentCommandTimeout() {
+        System.out.println("\n\ntest011bPostAgentCommandTimeout");
+        Response response;
+
+        Form form = new Form();
+        form.param("c", ".wait(3000); +late_cmd_done");
+
+        // the command does not finish in 200ms
+        response = client.target(uri.toString())
+                .path("agents/marcos/command")
+                .queryParam("timeout", 200)
+                .request()
+                .post(Entity.form(form));
+        System.out.println("Response (agents/marcos/command?timeout=200): " + response.getStatus());
+        assertEquals(504, response.getStatus());
+
+        // the command finishes in time, with the values of its variables
+        form = new Form();
+        form.param("c", "X = 10 + 1");
+        response = client.target(uri.toString())
+                .path("agents/marcos/command")
+                .queryParam("timeout", 5000)
+                .request()
+                .post(Entity.form(form));
+        String rStr = response.readEntity(String.class);
+        System.out.println("Response (agents/marcos/command?timeout=5000): " + rStr);
+        assertEquals(200, response.getStatus());
+        assertTrue(rStr.contains("11"));
+
+        client.close();
+    }
+
+    @Test
+    public void test012PostBatchCommand() {
+        System.out.println("\n\ntest012PostBatchCommand");
+        Response response;
+        String rStr;
+
+        String batch = "[{\"agent\":\"marcos\",\"command\":\"+batch_b1\"},"+
+                        "{\"agent\":\"marcos\",\"command\":\"X = 2 * 21\"},"+
+                        "{\"agent\":\"marcos2\",\"command\":\"+batch_b2\"}]";
+        response = client.target(uri.toString())
+                .path("agents/_batch/command")
+                .request()
+                .post(Entity.json(batch));
+        rStr = response.readEntity(String.class);
+        System.out.println("Response (agents/_batch/command): " + rStr);
+        assertEquals(200, response.getStatus());
+
+        String[] lines = rStr.trim().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(rStr.contains("42"));
+        assertTrue(rStr.contains("\"index\":2") && rStr.contains("error")); // marcos2 does not exist
+
+        // not a list of commands
+        response = client.target(uri.toString())
+                .path("agents/_batch/command")
+                .request()
+                .post(Entity.json("{\"agent\":\"marcos\"}"));
+        assertEquals(400, response.getStatus());
+
+        client.close();
+    }
+
     @Test
     @SuppressWarnings("rawtypes")
     public void test401PostWP() throws Exception {
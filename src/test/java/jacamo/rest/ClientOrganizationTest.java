@@ -51,6 +51,15 @@ public class ClientOrganizationTest {
         rStr = response.readEntity(String.class).toString(); 
         System.out.println("Response (organisations/testOrg): " + rStr);
         assertTrue(rStr.contains("scheme1.mission1"));
+
+        // unknown organisation (with the tag of an organisation that never changed)
+        String tag = response.getEntityTag().getValue();
+        response = client.target(uri.toString()).path("organisations/noOrg")
+                .request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", "W/\"" + tag.substring(0, tag.lastIndexOf('.')) + ".0\"")
+                .get();
+        response.close();
+        assertEquals(404, response.getStatus());
         
         client.close();
     }
@@ -1,5 +1,7 @@
 package jacamo.rest;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
@@ -40,5 +42,51 @@ public class ClientOverviewTest {
         
         client.close();
     }
+
+    @Test
+    public void test401bGetOverviewSections() {
+        System.out.println("\n\ntest401bGetOverviewSections");
+        Response response;
+        String rStr;
+
+        // only workspaces
+        response = client.target(uri.toString()).path("overview/")
+                .queryParam("include", "workspaces")
+                .request(MediaType.APPLICATION_JSON).get();
+        rStr = response.readEntity(String.class).toString(); 
+        System.out.println("Response (overview/?include=workspaces): " + rStr);
+        assertTrue(rStr.contains("\"workspaces\""));
+        assertTrue(rStr.contains("cartago.NodeArtifact"));
+        assertFalse(rStr.contains("\"agents\""));
+        assertFalse(rStr.contains("\"organisations\""));
+
+        // unknown section
+        response = client.target(uri.toString()).path("overview/")
+                .queryParam("include", "agents,foo")
+                .request(MediaType.APPLICATION_JSON).get();
+        assertEquals(400, response.getStatus());
+
+        client.close();
+    }
+
+    @Test
+    public void test402GetMetrics() {
+        System.out.println("\n\ntest402GetMetrics");
+        Response response;
+        String rStr;
+
+        // agents/ is answered by the WP cache
+        client.target(uri.toString()).path("agents/")
+                .request(MediaType.APPLICATION_JSON).get();
+        
+        response = client.target(uri.toString()).path("metrics/")
+                .request(MediaType.APPLICATION_JSON).get();
+        rStr = response.readEntity(String.class).toString(); 
+        System.out.println("Response (metrics/): " + rStr);
+        assertTrue(rStr.contains("whitePages"));
+        assertTrue(rStr.contains("hitRate"));
+        
+        client.close();
+    }
     
 }
@@ -1,18 +1,24 @@
 package jacamo.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.SseEventSource;
 
 import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
@@ -150,6 +156,150 @@ public class ClientWorkspaceTest {
         client.close();
     }
 
+    @Test
+    public void test204GetWorkspaceNotModified() {
+        System.out.println("\n\ntest204GetWorkspaceNotModified");
+
+        Response response = client
+                .target(uri.toString())
+                .path("workspaces/testwks")
+                .request(MediaType.APPLICATION_JSON)
+                .get();
+        response.readEntity(String.class);
+        assertEquals(200, response.getStatus());
+        EntityTag tag = response.getEntityTag();
+        assertNotNull(tag);
+        assertTrue(tag.isWeak());
+
+        // nothing changed
+        response = client
+                .target(uri.toString())
+                .path("workspaces/testwks")
+                .request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", tag.toString())
+                .get();
+        response.close();
+        assertEquals(304, response.getStatus());
+
+        // an operation changes the workspace
+        client
+            .target(uri.toString())
+            .path("workspaces/testwks/artifacts/a/operations/inc/execute")
+            .request(MediaType.APPLICATION_JSON)
+            .post(Entity.json(new Gson().toJson(new Object[] {})))
+            .close();
+
+        response = client
+                .target(uri.toString())
+                .path("workspaces/testwks")
+                .request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", tag.toString())
+                .get();
+        response.readEntity(String.class);
+        assertEquals(200, response.getStatus());
+        assertNotEquals(tag, response.getEntityTag());
+
+        // unknown workspaces and artifacts are not "not modified"
+        response = client
+                .target(uri.toString())
+                .path("workspaces/nowks")
+                .request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", versionZero(tag))
+                .get();
+        response.close();
+        assertEquals(404, response.getStatus());
+
+        response = client
+                .target(uri.toString())
+                .path("workspaces/testwks/artifacts/noart")
+                .request(MediaType.APPLICATION_JSON)
+                .header("If-None-Match", versionZero(tag))
+                .get();
+        response.close();
+        assertEquals(404, response.getStatus());
+
+        client.close();
+    }
+
+    /** the tag of something that never changed (version 0) in this run */
+    static String versionZero(EntityTag tag) {
+        String v = tag.getValue();
+        return new EntityTag(v.substring(0, v.lastIndexOf('.')) + ".0", true).toString();
+    }
+
+    @Test
+    public void test205GetArtifactStream() throws Exception {
+        System.out.println("\n\ntest205GetArtifactStream");
+        List<String> received = new CopyOnWriteArrayList<>();
+
+        WebTarget target = client.target(uri.toString()).path("workspaces/testwks/artifacts/a/stream");
+        try (SseEventSource source = SseEventSource.target(target).build()) {
+            source.register(ev -> received.add(ev.getName() + " " + ev.readData()));
+            source.open();
+            Thread.sleep(500);
+
+            client
+                .target(uri.toString())
+                .path("workspaces/testwks/artifacts/a/operations/reset/execute")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(new Gson().toJson(new Object[] { 70 })))
+                .close();
+
+            Thread.sleep(1000);
+        }
+        System.out.println("Events (workspaces/testwks/artifacts/a/stream): " + received);
+        assertTrue(received.stream().anyMatch(s -> s.startsWith("property") && s.contains("count"))); // current state
+        assertTrue(received.stream().anyMatch(s -> s.contains("\"count\",\"values\":[70]")));      // update
+
+        client.close();
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void test206PostOperationNoWait() throws Exception {
+        System.out.println("\n\ntest206PostOperationNoWait");
+
+        Response response = client
+                .target(uri.toString())
+                .path("workspaces/testwks/artifacts/a/operations/reset/execute")
+                .queryParam("wait", false)
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(new Gson().toJson(new Object[] { 80 })));
+        assertEquals(202, response.getStatus());
+        URI location = response.getLocation();
+        assertNotNull(location);
+        response.close();
+
+        // the operation finishes later
+        Map op = null;
+        for (int i = 0; i < 50; i++) {
+            response = client.target(location).request(MediaType.APPLICATION_JSON).get();
+            assertEquals(200, response.getStatus());
+            op = new Gson().fromJson(response.readEntity(String.class), Map.class);
+            if (!"running".equals(op.get("state")))
+                break;
+            Thread.sleep(100);
+        }
+        System.out.println("Operation: " + op);
+        assertEquals("succeeded", op.get("state"));
+        assertEquals("reset", op.get("operation"));
+
+        // an operation that fails
+        response = client
+                .target(uri.toString())
+                .path("workspaces/testwks/artifacts/a/operations/reset/execute")
+                .request(MediaType.APPLICATION_JSON)
+                .post(Entity.json(new Gson().toJson(new Object[] { "not a number", 2 })));
+        assertEquals(500, response.getStatus());
+        op = new Gson().fromJson(response.readEntity(String.class), Map.class);
+        assertEquals("failed", op.get("state"));
+
+        response = client.target(uri.toString()).path("operations/unknown").request(MediaType.APPLICATION_JSON).get();
+        assertEquals(404, response.getStatus());
+
+        client.close();
+    }
+
     @SuppressWarnings("rawtypes")
     @Test
     public void test301CreateDummyArt() throws InterruptedException {
@@ -0,0 +1,68 @@
+package jacamo.rest.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jacamo.rest.mediation.CommandCache;
+import jason.asSyntax.ASSyntax;
+import jason.asSyntax.PlanBody;
+import jason.asSyntax.Trigger;
+
+/**
+ * Cost of preparing a command (POST /agents/{name}/command):
+ * parsing it every time versus getting a copy from the command cache.
+ *
+ * ./gradlew bench -Pbench=CommandParseBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParseBench {
+
+    @Param({
+        "+raining",
+        ".print(oi); +xyz979898;",
+        "?price(banana,X); Y = X * 2; .send(bob, tell, price(banana,Y))"
+    })
+    String cmd;
+
+    CommandCache cache;
+    Trigger      te;
+
+    @Setup
+    public void setup() throws Exception {
+        cache = new CommandCache(500);
+        cache.get(cmd);
+        te = ASSyntax.parseTrigger("+!run_repl_expr");
+    }
+
+    /** former implementation: parse the command and the trigger */
+    @Benchmark
+    public Object parse() throws Exception {
+        PlanBody pb = ASSyntax.parsePlanBody(cmd);
+        Trigger  t  = ASSyntax.parseTrigger("+!run_repl_expr");
+        return new Object[] { pb, t };
+    }
+
+    /** copy of the parsed command and trigger */
+    @Benchmark
+    public Object cached() throws Exception {
+        PlanBody pb = cache.get(cmd);
+        Trigger  t  = te.clone();
+        return new Object[] { pb, t };
+    }
+}
@@ -0,0 +1,79 @@
+package jacamo.rest.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.Message;
+
+/**
+ * Cost of the JSON of a typical request (read a message posted in an inbox and
+ * write the details of an agent): creating a Gson by request (former implementation)
+ * versus using the shared Gson of JsonMapper.
+ *
+ * Run with the GC profiler to compare the bytes allocated by request (gc.alloc.rate.norm):
+ *
+ * ./gradlew bench -Pbench="GsonSharingBench -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonSharingBench {
+
+    String              msg;
+    Map<String, Object> details;
+
+    @Setup
+    public void setup() {
+        msg = new Gson().toJson(new Message("34", "tell", "jomi", "marcos", "vl(10)"));
+
+        details = new HashMap<>();
+        details.put("agent", "marcos");
+        List<Object> roles = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Map<String, Object> r = new HashMap<>();
+            r.put("group", "g" + i);
+            r.put("role", "r" + i);
+            roles.add(r);
+        }
+        details.put("roles", roles);
+        List<String> beliefs = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            beliefs.add("vl(" + i + ")[source(self)]");
+        details.put("beliefs", beliefs);
+    }
+
+    /** former implementation: new Gson() in each request */
+    @Benchmark
+    public void newByRequest(Blackhole bh) {
+        bh.consume(new Gson().fromJson(msg, Message.class));
+        bh.consume(new Gson().toJson(details));
+    }
+
+    @Benchmark
+    public void shared(Blackhole bh) {
+        Gson gson = JsonMapper.getGson();
+        bh.consume(gson.fromJson(msg, Message.class));
+        bh.consume(gson.toJson(details));
+    }
+}
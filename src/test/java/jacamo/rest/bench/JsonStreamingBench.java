@@ -0,0 +1,97 @@
+package jacamo.rest.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.util.JsonOutput;
+
+/**
+ * Memory used to send a large response (a workspace with many artifacts) through
+ * gzip: building the JSON string (former implementation) versus streaming it.
+ *
+ * Run with the GC profiler to see the bytes allocated by response (gc.alloc.rate.norm),
+ * which bounds the extra heap needed by each response:
+ *
+ * ./gradlew bench -Pbench="JsonStreamingBench -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonStreamingBench {
+
+    @Param({"100", "2000"})
+    int artifacts;
+
+    Gson                gson = new Gson();
+    Map<String, Object> workspace;
+
+    /** discards the bytes, as a client that reads fast */
+    static final OutputStream nullOut = new OutputStream() {
+        @Override public void write(int b) {}
+        @Override public void write(byte[] b, int off, int len) {}
+    };
+
+    @Setup
+    public void setup() {
+        Map<String, Object> arts = new HashMap<>();
+        for (int i = 0; i < artifacts; i++) {
+            Map<String, Object> art = new HashMap<>();
+            List<Object> props = new ArrayList<>();
+            Map<String, Object> p = new HashMap<>();
+            p.put("count", i);
+            props.add(p);
+            art.put("artifact", "art" + i);
+            art.put("type", "tools.Counter");
+            art.put("properties", props);
+            art.put("operations", new HashSet<>(Arrays.asList("observeProperty", "inc", "reset")));
+            art.put("observers", new HashSet<>(Arrays.asList("marcos", "bob", "alice")));
+            art.put("linkedArtifacts", new HashSet<>());
+            arts.put("art" + i, art);
+        }
+        workspace = new HashMap<>();
+        workspace.put("workspace", "testwks");
+        workspace.put("artifacts", arts);
+    }
+
+    /** former implementation: JSON string, then bytes, then gzip */
+    @Benchmark
+    public void string() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(nullOut)) {
+            out.write(gson.toJson(workspace).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /** JSON written directly in the gzip stream */
+    @Benchmark
+    public void streaming() throws IOException {
+        try (OutputStream out = new GZIPOutputStream(nullOut)) {
+            new JsonOutput(gson, workspace).write(out);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package jacamo.rest.bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.util.JsonMapper;
+import jacamo.rest.util.Message;
+import jacamo.rest.util.MessageCodec;
+import jacamo.rest.util.MessageStream;
+import jason.asSyntax.ASSyntax;
+
+/**
+ * Encoding and decoding of a batch of 100 messages (as sent between nodes) in JSON and
+ * in the binary format of the MessageCodec. The decoding includes the content as a term
+ * (parsed for JSON). The bytes by message of each format are printed by the setup.
+ *
+ * ./gradlew bench -Pbench=MessageCodecBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBench {
+
+    @Param({"json", "binary"})
+    String format;
+
+    @Param({"vl(10)", "offer(item(\"banana\",3),price(12.5),[fresh,organic])[deadline(100)]"})
+    String content;
+
+    Gson gson = JsonMapper.getGson();
+    List<jason.asSemantics.Message> msgs = new ArrayList<>();
+    byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        for (int i = 0; i < 100; i++)
+            msgs.add(new jason.asSemantics.Message("tell", "bob", "alice", ASSyntax.parseTerm(content), "mid" + i));
+        encoded = encode();
+        System.out.println("\n" + format + ": " + (encoded.length / msgs.size()) + " bytes/message");
+    }
+
+    byte[] encode() throws Exception {
+        if (format.equals("binary"))
+            return MessageCodec.encode(msgs);
+        List<Message> l = new ArrayList<>(msgs.size());
+        for (jason.asSemantics.Message m: msgs)
+            l.add(new Message(m));
+        return gson.toJson(l).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeBatch() throws Exception {
+        return encode();
+    }
+
+    @Benchmark
+    public void decodeBatch(Blackhole bh) throws Exception {
+        if (format.equals("binary")) {
+            MessageStream.readBinary(new ByteArrayInputStream(encoded), m -> bh.consume(m.getPropCont()));
+        } else {
+            new MessageStream(gson).read(new ByteArrayInputStream(encoded), false,
+                    m -> bh.consume(ASSyntax.parseTerm(m.getAsJasonMsg().getPropCont().toString())));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package jacamo.rest.bench;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jacamo.rest.JCMRest;
+import jacamo.rest.NodeChannels;
+import jacamo.rest.RestTestUtils;
+import jacamo.rest.util.MessageCodec;
+import jason.asSyntax.ASSyntax;
+
+/**
+ * Batches/s of 10 binary messages delivered (and acknowledged) to an agent of a node (test1.jcm)
+ * by its WebSocket or by POST /agents/_batch/inbox with the shared HTTP client.
+ *
+ * ./gradlew bench -Pbench=NodeChannelBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeChannelBench {
+
+    @Param({"ws", "http"})
+    String channel;
+
+    String       node;
+    WebTarget    batchInbox;
+    NodeChannels channels;
+    byte[]       batch;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        URI uri = RestTestUtils.launchRestSystem("src/test/test1.jcm");
+        node = uri.toString() + "agents/";
+        batchInbox = JCMRest.getMessageClient().target(node + "_batch/inbox");
+        channels = new NodeChannels(30000);
+
+        List<jason.asSemantics.Message> msgs = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            msgs.add(new jason.asSemantics.Message("tell", "jomi", "marcos", ASSyntax.parseLiteral("ping(" + i + ")"), "b" + i));
+        batch = MessageCodec.encode(msgs);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        channels.stop();
+        RestTestUtils.stopRestSystem();
+    }
+
+    @Benchmark
+    public Object send() throws Exception {
+        if (channel.equals("ws"))
+            return channels.send(node, batch);
+        Response r = batchInbox.request(MediaType.APPLICATION_JSON).post(Entity.entity(batch, MessageCodec.MEDIA_TYPE));
+        String ack = r.readEntity(String.class);
+        r.close();
+        return ack;
+    }
+}
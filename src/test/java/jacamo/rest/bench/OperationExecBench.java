@@ -0,0 +1,71 @@
+package jacamo.rest.bench;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jacamo.rest.JCMRest;
+import jacamo.rest.RestTestUtils;
+
+/**
+ * Operations/s of Counter.inc executed by REST (POST .../operations/inc/execute),
+ * with the ids of the artifacts cached or looked up for every operation (former implementation).
+ *
+ * ./gradlew bench -Pbench=OperationExecBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OperationExecBench {
+
+    @Param({"true", "false"})
+    boolean cache;
+
+    Client    client;
+    WebTarget inc;
+
+    @Setup(Level.Trial)
+    public void start() {
+        URI uri = RestTestUtils.launchRestSystem("src/test/test1.jcm");
+        client = ClientBuilder.newClient();
+        inc = client.target(uri.toString()).path("workspaces/testwks/artifacts/a/operations/inc/execute");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        client.close();
+        RestTestUtils.stopRestSystem();
+    }
+
+    @Benchmark
+    public int inc() {
+        if (!cache)
+            JCMRest.getArtifactIds().clear();
+        Response r = inc.request(MediaType.APPLICATION_JSON).post(Entity.json("[]"));
+        r.close();
+        return r.getStatus();
+    }
+}
@@ -0,0 +1,78 @@
+package jacamo.rest.bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jacamo.rest.JCMRest;
+import jacamo.rest.RestTestUtils;
+import jacamo.rest.config.RestAgArch;
+import jason.architecture.AgArch;
+import jason.asSemantics.Message;
+import jason.infra.centralised.BaseCentralisedMAS;
+
+/**
+ * Messages/s sent by an agent (bob, test0.jcm) to an agent of another JVM (alice, bench-receiver.jcm)
+ * on localhost: address of the receiver from the WP and POST to its inbox.
+ *
+ * ./gradlew bench -Pbench=RemoteMessageBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RemoteMessageBench {
+
+    Process    receiver;
+    RestAgArch bob;
+    Message    msg = new Message("tell", "bob", "alice", "ping");
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        RestTestUtils.launchRestSystem("src/test/test0.jcm");
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        receiver = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "jacamo.infra.JaCaMoLauncher", "src/test/bench-receiver.jcm")
+                .inheritIO()
+                .start();
+
+        // wait the receiver to be in the WP
+        long end = System.currentTimeMillis() + 60000;
+        while (JCMRest.getWhitePages().get("alice") == null) {
+            if (System.currentTimeMillis() > end)
+                throw new IllegalStateException("alice not registered in the WP");
+            Thread.sleep(200);
+        }
+
+        AgArch a = BaseCentralisedMAS.getRunner().getAg("bob").getFirstAgArch();
+        while (!(a instanceof RestAgArch))
+            a = a.getNextAgArch();
+        bob = (RestAgArch)a;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        receiver.destroy();
+        receiver.waitFor(10, TimeUnit.SECONDS);
+        RestTestUtils.stopRestSystem();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        bob.sendMsg(msg);
+    }
+}
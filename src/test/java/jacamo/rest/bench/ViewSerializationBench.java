@@ -0,0 +1,92 @@
+package jacamo.rest.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.data.ArtifactView;
+import jacamo.rest.data.WorkspaceView;
+import jacamo.rest.util.JsonMapper;
+
+/**
+ * Cost of building and writing the JSON of a workspace: a tree of HashMaps serialised
+ * by reflection (former implementation) versus typed views that write their own JSON.
+ *
+ * ./gradlew bench -Pbench="ViewSerializationBench -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ViewSerializationBench {
+
+    @Param({"10", "500"})
+    int artifacts;
+
+    Gson gson = JsonMapper.getGson();
+
+    static final Writer nullWriter = new Writer() {
+        @Override public void write(char[] cbuf, int off, int len) {}
+        @Override public void write(String str, int off, int len) {}
+        @Override public void flush() {}
+        @Override public void close() {}
+    };
+
+    @Benchmark
+    public void maps() throws IOException {
+        Map<String, Object> arts = new HashMap<>();
+        for (int i = 0; i < artifacts; i++) {
+            List<Object> props = new ArrayList<>();
+            Map<String, Object> p = new HashMap<>();
+            p.put("count", i);
+            props.add(p);
+            Map<String, Object> art = new HashMap<>();
+            art.put("artifact", "art" + i);
+            art.put("type", "tools.Counter");
+            art.put("properties", props);
+            art.put("operations", new HashSet<>(Arrays.asList("observeProperty", "inc", "reset")));
+            art.put("observers", new HashSet<>(Arrays.asList("marcos", "bob")));
+            art.put("linkedArtifacts", new HashSet<>());
+            arts.put("art" + i, art);
+        }
+        Map<String, Object> workspace = new HashMap<>();
+        workspace.put("workspace", "testwks");
+        workspace.put("artifacts", arts);
+        gson.toJson(workspace, nullWriter);
+    }
+
+    @Benchmark
+    public void views() throws IOException {
+        Map<String, ArtifactView> arts = new HashMap<>();
+        for (int i = 0; i < artifacts; i++) {
+            List<ArtifactView.Property> props = new ArrayList<>();
+            props.add(new ArtifactView.Property("count", i));
+            arts.put("art" + i, new ArtifactView("art" + i, "tools.Counter", props,
+                    new HashSet<>(Arrays.asList("observeProperty", "inc", "reset")),
+                    new HashSet<>(Arrays.asList("marcos", "bob")),
+                    new HashSet<>()));
+        }
+        gson.toJson(new WorkspaceView("testwks", arts), nullWriter);
+    }
+}
@@ -0,0 +1,120 @@
+package jacamo.rest.bench;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import jacamo.rest.JCMRest;
+import jacamo.rest.config.RestAgArch;
+
+/**
+ * Time to register N agents in the WP (as done when a MAS starts),
+ * using an embedded ZooKeeper server.
+ *
+ * ./gradlew bench -Pbench=WPRegistrationBench
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WPRegistrationBench {
+
+    @Param({"1000"})
+    int agents;
+
+    File              zkDir;
+    ServerCnxnFactory zkFactory;
+    CuratorFramework  zkClient;
+
+    @Setup(Level.Trial)
+    public void startZK() throws Exception {
+        zkDir = Files.createTempDirectory("jcm-zookeeper-bench").toFile();
+        zkFactory = new NIOServerCnxnFactory();
+        zkFactory.configure(new InetSocketAddress(2191), 10);
+        zkFactory.startup(new ZooKeeperServer(zkDir, zkDir, 2000));
+
+        zkClient = CuratorFrameworkFactory.newClient("localhost:2191", new ExponentialBackoffRetry(1000, 3));
+        zkClient.start();
+        zkClient.create().creatingParentsIfNeeded().forPath(JCMRest.JaCaMoZKAgNodeId);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopZK() throws Exception {
+        zkClient.close();
+        zkFactory.shutdown();
+        FileUtils.deleteDirectory(zkDir);
+    }
+
+    @Setup(Level.Iteration)
+    public void cleanWP() throws Exception {
+        for (String ag: zkClient.getChildren().forPath(JCMRest.JaCaMoZKAgNodeId))
+            zkClient.delete().deletingChildrenIfNeeded().forPath(JCMRest.JaCaMoZKAgNodeId+"/"+ag);
+    }
+
+    Map<String,String> md(String agName) {
+        Map<String,String> md = new HashMap<>();
+        md.put("type", "JaCaMoAgent");
+        md.put("uri", "http://localhost:8080/agents/"+agName);
+        return md;
+    }
+
+    /** former implementation: checkExists and two creates for each agent */
+    @Benchmark
+    public void sequential() throws Exception {
+        for (int i=0; i<agents; i++) {
+            String agName = "ag"+i;
+            String agAddr = JCMRest.JaCaMoZKAgNodeId+"/"+agName;
+            Map<String,String> md = md(agName);
+            if (zkClient.checkExists().forPath(agAddr) == null) {
+                zkClient.create().forPath(agAddr, md.get("uri").getBytes());
+                md.put("inbox", md.get("uri")+"/inbox");
+                zkClient.create().forPath(agAddr+"/"+JCMRest.JaCaMoZKMDNodeId, new Gson().toJson(md).getBytes());
+            }
+        }
+    }
+
+    /** one transaction for each agent */
+    @Benchmark
+    public void transactionPerAgent() throws Exception {
+        for (int i=0; i<agents; i++)
+            RestAgArch.registerWP(zkClient, "ag"+i, md("ag"+i), true);
+    }
+
+    /** bulk registration (batches of 200 agents) */
+    @Benchmark
+    public void batched() throws Exception {
+        Map<String,Map<String,String>> all = new LinkedHashMap<>();
+        for (int i=0; i<agents; i++)
+            all.put("ag"+i, md("ag"+i));
+        RestAgArch.registerWP(zkClient, all, true, 200);
+    }
+}